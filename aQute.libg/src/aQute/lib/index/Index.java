@@ -13,23 +13,41 @@ import java.util.*;
  *   245 -> 245, ...
  * </pre>
  * 
+ * The file is mapped in regions of {@link #REGION_PAGES} pages, the pages are
+ * views on these regions. Only a bounded number of pages is cached, an
+ * evicted page is recreated from its region when it is needed again.
  * 
+ * A large index should be created with {@link #bulkLoad(byte[][], long[])},
+ * which builds the tree bottom up from sorted keys.
  */
 public class Index implements Iterable<byte[]> {
 	final static int					LEAF		= 0;
 	final static int					INDEX		= 1;
 
-	final static int					SIGNATURE	= 0;
-	final static int					MAGIC		= 0x494C4458;
-	final static int					KEYSIZE		= 4;
+	final static int					SIGNATURE		= 0;
+	final static int					MAGIC			= 0x494C4458;
+	final static int					KEYSIZE			= 4;
+	final static int					NEXTPAGE		= 8;
+
+	final static int					REGION_PAGES	= 256;
+	final static int					CACHED_PAGES	= 1024;
 
 	private FileChannel					file;
-	final int							pageSize	= 4096;
+	final int							pageSize		= 4096;
 	final int							keySize;
-	final int							valueSize	= 8;
+	final int							valueSize		= 8;
 	final int							capacity;
 	public Page							root;
-	final LinkedHashMap<Integer, Page>	cache		= new LinkedHashMap<Integer, Index.Page>();
+	final LinkedHashMap<Integer, Page>	cache			= new LinkedHashMap<Integer, Index.Page>(
+																16, 0.75f, true) {
+															private static final long	serialVersionUID	= 1L;
+
+															protected boolean removeEldestEntry(
+																	Map.Entry<Integer, Page> eldest) {
+																return size() > CACHED_PAGES;
+															}
+														};
+	final List<MappedByteBuffer>		regions			= new ArrayList<MappedByteBuffer>();
 	final MappedByteBuffer				settings;
 
 	private int							nextPage;
@@ -40,13 +58,15 @@ public class Index implements Iterable<byte[]> {
 		final static int		START_OFFSET	= 4;
 		final int				number;
 		boolean					leaf;
-		final MappedByteBuffer	buffer;
+		final MappedByteBuffer	region;
+		final ByteBuffer		buffer;
 		int						n				= 0;
 		boolean					dirty;
 
 		Page(int number) throws IOException {
 			this.number = number;
-			buffer = file.map(MapMode.READ_WRITE, number * pageSize, pageSize);
+			region = getRegion(number);
+			buffer = slice(region, number);
 			n = buffer.getShort(COUNT_OFFSET);
 			int type = buffer.getShort(TYPE_OFFSET);
 			leaf = type != 0;
@@ -56,7 +76,8 @@ public class Index implements Iterable<byte[]> {
 			this.number = number;
 			this.leaf = leaf;
 			this.n = 0;
-			buffer = file.map(MapMode.READ_WRITE, number * pageSize, pageSize);
+			region = getRegion(number);
+			buffer = slice(region, number);
 		}
 
 		Iterator<byte[]> iterator() {
@@ -77,11 +98,11 @@ public class Index implements Iterable<byte[]> {
 						if (leaf)
 							return rover < n;
 						else {
-							while (i == null || i.hasNext() == false) {
+							while ((i == null || i.hasNext() == false) && rover < n) {
 								int c = (int) c(rover++);
 								i = getPage(c).iterator();
 							}
-							return i.hasNext();
+							return i != null && i.hasNext();
 						}
 					} catch (IOException e) {
 						throw new RuntimeException(e);
@@ -97,9 +118,13 @@ public class Index implements Iterable<byte[]> {
 		}
 
 		void write() throws IOException {
+			header();
+			region.force();
+		}
+
+		void header() {
 			buffer.putShort(COUNT_OFFSET, (short) n);
 			buffer.put(TYPE_OFFSET, (byte) (leaf ? 1 : 0));
-			buffer.force();
 		}
 
 		int compare(byte[] key, int i) {
@@ -179,9 +204,10 @@ public class Index implements Iterable<byte[]> {
 		}
 
 		byte[] k(int i) {
-			buffer.position(pos(i));
+			int index = pos(i);
 			byte[] key = new byte[keySize];
-			buffer.get(key);
+			for (int j = 0; j < keySize; j++)
+				key[j] = buffer.get(index + j);
 			return key;
 		}
 
@@ -237,8 +263,8 @@ public class Index implements Iterable<byte[]> {
 					n++;
 					assert i < n;
 					child = right.compare(k, 0) >= 0 ? right : left;
-					left.dirty = true;
-					right.dirty = true;
+					left.write();
+					right.write();
 					this.dirty = true;
 				}
 				child.insertNonFull(k, v);
@@ -310,8 +336,93 @@ public class Index implements Iterable<byte[]> {
 						+ this.keySize + " and was expected to be " + this.keySize);
 
 			root = getPage(1);
-			nextPage = (int) (this.file.size() / pageSize);
+			nextPage = settings.getInt(NEXTPAGE);
+			if (nextPage == 0)
+				nextPage = (int) (this.file.size() / pageSize);
+		}
+	}
+
+	/**
+	 * Fill an empty index with sorted keys. The tree is built bottom up, the
+	 * leaves and index pages are filled completely. This is much faster than
+	 * inserting the keys one by one.
+	 * 
+	 * @param keys
+	 *            the keys in ascending order, without duplicates
+	 * @param values
+	 *            the value for each key
+	 */
+	public void bulkLoad(byte[][] keys, long[] values) throws IOException {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException("Number of keys and values differ");
+		if (!root.leaf || root.n != 1 || root.c(0) != 0 || compare(root.k(0), new byte[0]) != 0)
+			throw new IllegalStateException("Bulk load requires an empty index");
+
+		// The first entry is the empty key that the root of an empty index
+		// has, it makes all keys findable. A key that is empty replaces it.
+		List<byte[]> levelKeys = new ArrayList<byte[]>();
+		List<Long> levelValues = new ArrayList<Long>();
+		if (keys.length == 0 || compare(keys[0], new byte[0]) != 0) {
+			levelKeys.add(new byte[keySize]);
+			levelValues.add(0L);
 		}
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0 && compare(keys[i - 1], keys[i]) >= 0)
+				throw new IllegalArgumentException("Keys are not sorted or have duplicates at " + i);
+			levelKeys.add(keys[i]);
+			levelValues.add(values[i]);
+		}
+
+		boolean leaf = true;
+		while (levelKeys.size() > capacity) {
+			List<byte[]> upperKeys = new ArrayList<byte[]>();
+			List<Long> upperValues = new ArrayList<Long>();
+			for (int start = 0; start < levelKeys.size(); start += capacity) {
+				int end = Math.min(start + capacity, levelKeys.size());
+				Page page = allocate(leaf);
+				for (int i = start; i < end; i++)
+					page.set(i - start, levelKeys.get(i), levelValues.get(i));
+				page.n = end - start;
+				page.header();
+				upperKeys.add(levelKeys.get(start));
+				upperValues.add((long) page.number);
+			}
+			levelKeys = upperKeys;
+			levelValues = upperValues;
+			leaf = false;
+		}
+
+		for (int i = 0; i < levelKeys.size(); i++)
+			root.set(i, levelKeys.get(i), levelValues.get(i));
+		root.n = levelKeys.size();
+		root.leaf = leaf;
+		root.header();
+		force();
+	}
+
+	/**
+	 * Force all mapped regions and the settings to disk.
+	 */
+	void force() {
+		synchronized (regions) {
+			for (MappedByteBuffer region : regions)
+				if (region != null)
+					region.force();
+		}
+		settings.force();
+	}
+
+	/**
+	 * Compare two keys, unsigned and padded with zeros to the key size.
+	 */
+	int compare(byte[] a, byte[] b) {
+		for (int j = 0; j < keySize; j++) {
+			int x = j < a.length ? a[j] & 0xFF : 0;
+			int y = j < b.length ? b[j] & 0xFF : 0;
+			if (x != y)
+				return x > y ? 1 : -1;
+		}
+		return 0;
 	}
 
 	public void insert(byte[] k, long v) throws Exception {
@@ -323,18 +434,58 @@ public class Index implements Iterable<byte[]> {
 	}
 
 	Page allocate(boolean leaf) throws IOException {
-		Page page = new Page(nextPage++, leaf);
-		cache.put(page.number, page);
-		return page;
+		synchronized (cache) {
+			Page page = new Page(nextPage++, leaf);
+			settings.putInt(NEXTPAGE, nextPage);
+			cache.put(page.number, page);
+			return page;
+		}
 	}
 
+	/**
+	 * Answer the mapped region that holds a page, the region is mapped the
+	 * first time one of its pages is used.
+	 */
+	MappedByteBuffer getRegion(int number) throws IOException {
+		int r = number / REGION_PAGES;
+		synchronized (regions) {
+			while (regions.size() <= r)
+				regions.add(null);
+
+			MappedByteBuffer region = regions.get(r);
+			if (region == null) {
+				long size = (long) REGION_PAGES * pageSize;
+				region = file.map(MapMode.READ_WRITE, r * size, size);
+				regions.set(r, region);
+			}
+			return region;
+		}
+	}
+
+	/**
+	 * Answer a view on the part of the region that holds a page.
+	 */
+	ByteBuffer slice(MappedByteBuffer region, int number) {
+		ByteBuffer buffer = region.duplicate();
+		int offset = (number % REGION_PAGES) * pageSize;
+		buffer.position(offset);
+		buffer.limit(offset + pageSize);
+		return buffer.slice();
+	}
+
+	/**
+	 * Answer a page. Searches can run concurrently when inserts are excluded,
+	 * so the page cache is guarded.
+	 */
 	Page getPage(int number) throws IOException {
-		Page page = cache.get(number);
-		if (page == null) {
-			page = new Page(number);
-			cache.put(number, page);
+		synchronized (cache) {
+			Page page = cache.get(number);
+			if (page == null) {
+				page = new Page(number);
+				cache.put(number, page);
+			}
+			return page;
 		}
-		return page;
 	}
 
 	public String toString() {
@@ -342,8 +493,12 @@ public class Index implements Iterable<byte[]> {
 	}
 	
 	public void close() throws IOException {
+		settings.force();
 		file.close();
 		cache.clear();
+		synchronized (regions) {
+			regions.clear();
+		}
 	}
 
 	public Iterator<byte[]> iterator() {
@@ -3,10 +3,12 @@ package aQute.libg.cafs;
 import static aQute.lib.io.IO.*;
 
 import java.io.*;
+import java.nio.*;
 import java.nio.channels.*;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.util.zip.*;
 
 import aQute.lib.index.*;
@@ -22,6 +24,12 @@ import aQute.libg.cryptography.*;
  * naming scheme. An added advantage is that it is always easy to verify you get
  * the right stuff. The SHA-1 Content Addressable File Store is the core
  * underlying idea in Git.
+ * 
+ * The store can be used concurrently. Reads use positional reads on the file
+ * channel and do not block each other. Writes compress in the calling thread
+ * and then queue their record, one of the writers appends all the queued
+ * records and forces them to disk in one go. The index is guarded by a read
+ * write lock.
  */
 public class CAFS implements Closeable, Iterable<SHA1> {
 	final static byte[]	CAFS			= "CAFS".getBytes();
@@ -42,6 +50,26 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	Index				index;
 	RandomAccessFile	store;
 	FileChannel			channel;
+	final ReadWriteLock	lock			= new ReentrantReadWriteLock();
+	final List<Record>	pending			= new ArrayList<Record>();
+	boolean				writing;
+
+	/**
+	 * A record that waits to be appended to the store.
+	 */
+	static class Record {
+		final SHA1		sha1;
+		final byte[]	compressed;
+		final int		totalLength;
+		boolean			done;
+		Exception		exception;
+
+		Record(SHA1 sha1, byte[] compressed, int totalLength) {
+			this.sha1 = sha1;
+			this.compressed = compressed;
+			this.totalLength = totalLength;
+		}
+	}
 
 	/**
 	 * Constructor for a Content Addressable File Store
@@ -98,48 +126,115 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 		ByteArrayOutputStream bout = new ByteArrayOutputStream();
 		copy(dfl, bout);
 
-		synchronized (store) {
-			// First check if it already exists
-			SHA1 sha1 = new SHA1(md.digest());
-			
-			long search = index.search(sha1.digest());
-			if (search > 0)
+		// First check if it already exists
+		SHA1 sha1 = new SHA1(md.digest());
+		if (search(sha1.digest()) > 0)
+			return sha1;
+
+		Record record = new Record(sha1, bout.toByteArray(), deflater.getTotalIn());
+		List<Record> batch;
+		synchronized (pending) {
+			pending.add(record);
+			while (writing && !record.done)
+				pending.wait();
+
+			if (record.done) {
+				if (record.exception != null)
+					throw record.exception;
 				return sha1;
+			}
 
-			byte[] compressed = bout.toByteArray();
+			// We are the writer, take all the records that are waiting
+			writing = true;
+			batch = new ArrayList<Record>(pending);
+			pending.clear();
+		}
 
-			// we need to append this file to our store,
-			// which requires a lock. However, we are in a race
-			// so others can get the lock between us getting
-			// the length and someone else getting the lock.
-			// So we must verify after we get the lock that the
-			// length was unchanged.
-			FileLock lock = null;
-			try {
-				long insertPoint;
-				int recordLength = compressed.length + HEADERLENGTH;
+		Exception exception = null;
+		try {
+			append(batch);
+		} catch (Exception e) {
+			exception = e;
+		} finally {
+			synchronized (pending) {
+				for (Record r : batch) {
+					r.exception = exception;
+					r.done = true;
+				}
+				writing = false;
+				pending.notifyAll();
+			}
+		}
+		if (exception != null)
+			throw exception;
+		return sha1;
+	}
 
-				while (true) {
-					insertPoint = store.length();
-					lock = channel.lock(insertPoint, recordLength, false);
+	/**
+	 * Append a batch of records to the store. The records are written with a
+	 * single positional write and forced to disk once, then they are added
+	 * to the index. Records that are already in the store are skipped.
+	 * 
+	 * @param batch
+	 *            The records to append
+	 * @throws Exception
+	 */
+	private void append(List<Record> batch) throws Exception {
+		Map<SHA1, Record> records = new LinkedHashMap<SHA1, Record>();
+		int length = 0;
+		for (Record r : batch) {
+			if (!records.containsKey(r.sha1) && search(r.sha1.digest()) <= 0) {
+				records.put(r.sha1, r);
+				length += HEADERLENGTH + r.compressed.length;
+			}
+		}
+		if (records.isEmpty())
+			return;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (Record r : records.values())
+			update(buffer, r.sha1.digest(), r.compressed, r.totalLength);
+		buffer.flip();
+
+		// we need to append to our store, which requires a file lock since
+		// other processes can append as well. However, we are in a race so
+		// others can get the lock between us getting the length and someone
+		// else getting the lock. So we must verify after we get the lock that
+		// the length was unchanged.
+		FileLock fileLock = null;
+		try {
+			long insertPoint;
+			while (true) {
+				insertPoint = channel.size();
+				fileLock = channel.lock(insertPoint, length, false);
+
+				if (channel.size() == insertPoint)
+					break;
+
+				// We got the wrong lock, someone else
+				// got in between reading the length
+				// and locking
+				fileLock.release();
+			}
 
-					if (store.length() == insertPoint)
-						break;
+			long position = insertPoint;
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+			channel.force(false);
 
-					// We got the wrong lock, someone else
-					// got in between reading the length
-					// and locking
-					lock.release();
+			lock.writeLock().lock();
+			try {
+				position = insertPoint;
+				for (Record r : records.values()) {
+					index.insert(r.sha1.digest(), position);
+					position += HEADERLENGTH + r.compressed.length;
 				}
-				int totalLength = deflater.getTotalIn();
-				store.seek(insertPoint);
-				update(sha1.digest(), compressed, totalLength);
-				index.insert(sha1.digest(), insertPoint);
-				return sha1;
 			} finally {
-				if (lock != null)
-					lock.release();
+				lock.writeLock().unlock();
 			}
+		} finally {
+			if (fileLock != null)
+				fileLock.release();
 		}
 	}
 
@@ -152,49 +247,66 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	 * @throws Exception
 	 */
 	public InputStream read(final SHA1 sha1) throws Exception {
-		synchronized (store) {
-			long offset = index.search(sha1.digest());
-			if (offset < 0)
-				return null;
-
-			byte[] readSha1;
-			byte[] buffer;
-			store.seek(offset);
-			if (!verifySignature(store, CAFE))
-				throw new IllegalArgumentException("No signature");
-
-			int flags =store.readInt();
-			int compressedLength = store.readInt();
-			int uncompressedLength = store.readInt();
-			readSha1 = new byte[KEYLENGTH];
-			store.read(readSha1);
-			SHA1 rsha1 = new SHA1(readSha1);
-			
-			if (!sha1.equals(rsha1))
-				throw new IOException("SHA1 read and asked mismatch: " + sha1 + " " + rsha1);
+		long offset = search(sha1.digest());
+		if (offset < 0)
+			return null;
 
-			short crc = store.readShort(); // Read CRC
-			if ( crc != checksum(flags,compressedLength, uncompressedLength, readSha1))
-				throw new IllegalArgumentException("Invalid header checksum: " + sha1);
-			
-			buffer = new byte[compressedLength];
-			store.readFully(buffer);
-			return getSha1Stream(sha1, buffer, uncompressedLength);
+		ByteBuffer header = read(offset, HEADERLENGTH);
+		byte[] signature = new byte[CAFE.length];
+		header.get(signature);
+		if (!Arrays.equals(CAFE, signature))
+			throw new IllegalArgumentException("No signature");
+
+		int flags = header.getInt();
+		int compressedLength = header.getInt();
+		int uncompressedLength = header.getInt();
+		byte[] readSha1 = new byte[KEYLENGTH];
+		header.get(readSha1);
+		SHA1 rsha1 = new SHA1(readSha1);
+
+		if (!sha1.equals(rsha1))
+			throw new IOException("SHA1 read and asked mismatch: " + sha1 + " " + rsha1);
+
+		short crc = header.getShort(); // Read CRC
+		if (crc != checksum(flags, compressedLength, uncompressedLength, readSha1))
+			throw new IllegalArgumentException("Invalid header checksum: " + sha1);
+
+		byte[] buffer = read(offset + HEADERLENGTH, compressedLength).array();
+		return getSha1Stream(sha1, buffer, uncompressedLength);
+	}
+
+	/**
+	 * Read a part of the store with positional reads, this does not use the
+	 * file pointer so it needs no lock.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("Unexpected end of store at " + position);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private long search(byte[] sha1) throws Exception {
+		lock.readLock().lock();
+		try {
+			return index.search(sha1);
+		} finally {
+			lock.readLock().unlock();
 		}
 	}
 
 	public boolean exists(byte[] sha1) throws Exception {
-		return index.search(sha1) >= 0;
+		return search(sha1) >= 0;
 	}
 
 	public void reindex() throws Exception {
-		long length;
-		synchronized (store) {
-			length = store.length();
-			if (length < 0x100)
-				throw new IllegalArgumentException(
-						"Store file is too small, need to be at least 256 bytes: " + store);
-		}
+		long length = channel.size();
+		if (length < 0x100)
+			throw new IllegalArgumentException(
+					"Store file is too small, need to be at least 256 bytes: " + store);
 
 		RandomAccessFile in = new RandomAccessFile(new File(home, STOREFILE), "r");
 		try {
@@ -213,11 +325,16 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 				index.insert(sha1.digest(), entry);
 			}
 
-			synchronized (store) {
+			lock.writeLock().lock();
+			try {
 				index.close();
+				this.index.close();
 				File indexFile = new File(home, INDEXFILE);
+				indexFile.delete();
 				ixf.renameTo(indexFile);
-				index = new Index(indexFile, KEYLENGTH);
+				this.index = new Index(indexFile, KEYLENGTH);
+			} finally {
+				lock.writeLock().unlock();
 			}
 		} finally {
 			in.close();
@@ -225,11 +342,14 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	public void close() throws IOException {
-		synchronized (store) {
+		lock.writeLock().lock();
+		try {
+			store.close();
+		} finally {
 			try {
-				store.close();
-			} finally {
 				index.close();
+			} finally {
+				lock.writeLock().unlock();
 			}
 		}
 	}
@@ -314,32 +434,27 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	/**
-	 * Update a record in the store, assuming the store is at the right
-	 * position.
+	 * Add a record for the store to a buffer.
 	 * 
+	 * @param buffer
+	 *            The buffer to add the record to
 	 * @param sha1
 	 *            The checksum
 	 * @param compressed
-	 *            The compressed length
+	 *            The compressed data
 	 * @param totalLength
 	 *            The uncompressed length
-	 * @throws IOException
-	 *             The exception
 	 */
-	private void update(byte[] sha1, byte[] compressed, int totalLength) throws IOException {
-		System.out.println("pos: " + store.getFilePointer());
-		store.write(CAFE); // 00-03 Signature
-		store.writeInt(0); // 04-07 Flags for the future
-		store.writeInt(compressed.length); // 08-11 Length deflated data
-		store.writeInt(totalLength); // 12-15 Length
-		store.write(sha1); // 16-35
-		store.writeShort( checksum(0,compressed.length, totalLength, sha1));
-		store.write(compressed);
-		channel.force(false);
+	private void update(ByteBuffer buffer, byte[] sha1, byte[] compressed, int totalLength) {
+		buffer.put(CAFE); // 00-03 Signature
+		buffer.putInt(0); // 04-07 Flags for the future
+		buffer.putInt(compressed.length); // 08-11 Length deflated data
+		buffer.putInt(totalLength); // 12-15 Length
+		buffer.put(sha1); // 16-35
+		buffer.putShort(checksum(0, compressed.length, totalLength, sha1));
+		buffer.put(compressed);
 	}
 
-	
-	
 	private short checksum(int flags, int compressedLength, int totalLength, byte[] sha1) {
 		CRC32 crc = new CRC32();
 		crc.update(flags);
@@ -364,38 +479,34 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 			long position = 0x100;
 			
 			public boolean hasNext() {
-				synchronized(store) {
-					try {
-						return position < store.length();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+				try {
+					return position < channel.size();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
 			}
 
 			public SHA1 next() {
-				synchronized(store) {
-					try {
-						store.seek(position);
-						byte [] signature = new byte[4];
-						store.readFully(signature);
-						if ( !Arrays.equals(CAFE, signature))
-							throw new IllegalArgumentException("No signature");
-
-						int flags = store.readInt();
-						int compressedLength = store.readInt();
-						int totalLength = store.readInt();
-						byte []sha1 = new byte[KEYLENGTH];
-						store.readFully(sha1);
-						short crc = store.readShort();
-						if ( crc != checksum(flags,compressedLength, totalLength, sha1))
-							throw new IllegalArgumentException("Header checksum fails");
-						
-						position += HEADERLENGTH + compressedLength;
-						return new SHA1(sha1);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}				
+				try {
+					ByteBuffer header = read(position, HEADERLENGTH);
+					byte [] signature = new byte[4];
+					header.get(signature);
+					if ( !Arrays.equals(CAFE, signature))
+						throw new IllegalArgumentException("No signature");
+
+					int flags = header.getInt();
+					int compressedLength = header.getInt();
+					int totalLength = header.getInt();
+					byte []sha1 = new byte[KEYLENGTH];
+					header.get(sha1);
+					short crc = header.getShort();
+					if ( crc != checksum(flags,compressedLength, totalLength, sha1))
+						throw new IllegalArgumentException("Header checksum fails");
+					
+					position += HEADERLENGTH + compressedLength;
+					return new SHA1(sha1);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
 			}
 
@@ -407,8 +518,6 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 
 	
 	public boolean isEmpty() throws IOException {
-		synchronized(store) {
-			return store.getFilePointer() <= 256;
-		}
+		return channel.size() <= 256;
 	}
 }
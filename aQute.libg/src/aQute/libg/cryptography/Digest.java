@@ -1,5 +1,7 @@
 package aQute.libg.cryptography;
 
+import java.util.*;
+
 import aQute.lib.hex.*;
 
 public abstract class Digest {
@@ -17,6 +19,18 @@ public abstract class Digest {
 		return digest;
 	}
 
+	@Override public boolean equals(Object other) {
+		if (!(other instanceof Digest))
+			return false;
+
+		Digest d = (Digest) other;
+		return getAlgorithm().equals(d.getAlgorithm()) && Arrays.equals(digest, d.digest);
+	}
+
+	@Override public int hashCode() {
+		return Arrays.hashCode(digest);
+	}
+
 	@Override public String toString() {
 		return String.format("%s(d=%s)", getAlgorithm(), Hex.toHexString(digest));
 	}
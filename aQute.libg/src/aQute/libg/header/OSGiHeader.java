@@ -12,6 +12,21 @@ public class OSGiHeader {
         return parseHeader(value, null);
     }
 
+    static final int CACHE_SIZE = 1000;
+
+    /**
+     * The parsed headers on their value, least recently used first.
+     */
+    static final Map<String, Map<String, Map<String, String>>> cache = new LinkedHashMap<String, Map<String, Map<String, String>>>(
+            CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(
+                Map.Entry<String, Map<String, Map<String, String>>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     /**
      * Standard OSGi header parser. This parser can handle the format clauses
      * ::= clause ( ',' clause ) + clause ::= name ( ';' name ) (';' key '='
@@ -19,95 +34,166 @@ public class OSGiHeader {
      * 
      * This is mapped to a Map { name => Map { attr|directive => value } }
      * 
+     * The result is a copy of the cached header that can be modified freely,
+     * names that share a clause in the header share the copied clause.
+     * 
      * @param value
      *            A string
      * @return a Map<String,Map<String,String>>
      */
     static public Map<String, Map<String, String>> parseHeader(String value,
             Reporter logger) {
+        Map<String, Map<String, String>> result = Create.map();
+        Map<Map<String, String>, Map<String, String>> copies = new IdentityHashMap<Map<String, String>, Map<String, String>>();
+        for (Map.Entry<String, Map<String, String>> entry : getHeader(value,
+                logger).entrySet()) {
+            Map<String, String> clause = copies.get(entry.getValue());
+            if (clause == null) {
+                clause = Create.copy(entry.getValue());
+                copies.put(entry.getValue(), clause);
+            }
+            result.put(entry.getKey(), clause);
+        }
+        return result;
+    }
+
+    /**
+     * Answer the parsed header as an unmodifiable map. Headers are parsed once
+     * and cached on their value, unless they had a problem that is reported
+     * to the logger. The most recently used headers are kept.
+     * 
+     * @param value
+     *            A string
+     * @return an unmodifiable Map<String,Map<String,String>>
+     */
+    static public Map<String, Map<String, String>> getHeader(String value,
+            Reporter logger) {
         if (value == null || value.trim().length() == 0)
-            return Create.map();
+            return Collections.emptyMap();
 
-        Map<String, Map<String, String>> result = Create.map();
-        QuotedTokenizer qt = new QuotedTokenizer(value, ";=,");
-        char del = 0;
-        do {
-            boolean hadAttribute = false;
-            Map<String, String> clause = Create.map();
-            List<String> aliases = Create.list();
-            String name = qt.nextToken(",;");
+        Map<String, Map<String, String>> header;
+        synchronized (cache) {
+            header = cache.get(value);
+        }
+        if (header != null)
+            return header;
 
-            del = qt.getSeparator();
-            if (name == null || name.length() == 0) {
-                if (logger != null && logger.isPedantic()) {
-                    logger
-                            .warning("Empty clause, usually caused by repeating a comma without any name field or by having spaces after the backslash of a property file: "
-                                    + value);
-                }
-                if (name == null)
-                    break;
-            } else {
-                name = name.trim();
-
-                aliases.add(name);
-                while (del == ';') {
-                    String adname = qt.nextToken();
-                    if ((del = qt.getSeparator()) != '=') {
-                        if (hadAttribute)
-                            if (logger != null) {
-                                logger
-                                        .error("Header contains name field after attribute or directive: "
-                                                + adname
-                                                + " from "
-                                                + value
-                                                + ". Name fields must be consecutive, separated by a ';' like a;b;c;x=3;y=4");
+        Parser parser = new Parser();
+        header = parser.parse(value, logger);
+        if (parser.clean) {
+            synchronized (cache) {
+                cache.put(value, header);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Parses a header into an unmodifiable map. A parser is clean when it met
+     * nothing to report, whether or not the logger is pedantic.
+     */
+    static class Parser {
+        boolean clean = true;
+
+        Map<String, Map<String, String>> parse(String value, Reporter logger) {
+            Map<String, Map<String, String>> result = Create.map();
+            QuotedTokenizer qt = new QuotedTokenizer(value, ";=,");
+            char del = 0;
+            do {
+                boolean hadAttribute = false;
+                Map<String, String> clause = Create.map();
+                List<String> aliases = Create.list();
+                String name = qt.nextToken(",;");
+
+                del = qt.getSeparator();
+                if (name == null || name.length() == 0) {
+                    clean = false;
+                    if (logger != null && logger.isPedantic()) {
+                        logger
+                                .warning("Empty clause, usually caused by repeating a comma without any name field or by having spaces after the backslash of a property file: "
+                                        + value);
+                    }
+                    if (name == null)
+                        break;
+                } else {
+                    name = name.trim();
+
+                    aliases.add(name);
+                    while (del == ';') {
+                        String adname = qt.nextToken();
+                        if ((del = qt.getSeparator()) != '=') {
+                            if (hadAttribute) {
+                                clean = false;
+                                if (logger != null) {
+                                    logger
+                                            .error("Header contains name field after attribute or directive: "
+                                                    + adname
+                                                    + " from "
+                                                    + value
+                                                    + ". Name fields must be consecutive, separated by a ';' like a;b;c;x=3;y=4");
+                                }
                             }
-                        if (adname != null && adname.length() > 0)
-                            aliases.add(adname.trim());
-                    } else {
-                        String advalue = qt.nextToken();
-                        if (clause.containsKey(adname)) {
-                            if (logger != null && logger.isPedantic())
-                                logger
-                                        .warning("Duplicate attribute/directive name "
-                                                + adname
-                                                + " in "
-                                                + value
-                                                + ". This attribute/directive will be ignored");
+                            if (adname != null && adname.length() > 0)
+                                aliases.add(adname.trim());
+                        } else {
+                            String advalue = qt.nextToken();
+                            if (clause.containsKey(adname)) {
+                                clean = false;
+                                if (logger != null && logger.isPedantic())
+                                    logger
+                                            .warning("Duplicate attribute/directive name "
+                                                    + adname
+                                                    + " in "
+                                                    + value
+                                                    + ". This attribute/directive will be ignored");
+                            }
+                            if (advalue == null) {
+                                clean = false;
+                                if (logger != null)
+                                    logger
+                                            .error("No value after '=' sign for attribute "
+                                                    + adname);
+                                advalue = "";
+                            }
+                            clause.put(adname.trim(), advalue.trim());
+                            del = qt.getSeparator();
+                            hadAttribute = true;
                         }
-                        if (advalue == null) {
-                            if (logger != null)
+                    }
+
+                    // Check for duplicate names. The aliases list contains
+                    // the list of nams, for each check if it exists. If so,
+                    // add a number of "~" to make it unique.
+                    for (String clauseName : aliases) {
+                        if (result.containsKey(clauseName)) {
+                            clean = false;
+                            if (logger != null && logger.isPedantic())
                                 logger
-                                        .error("No value after '=' sign for attribute "
-                                                + adname);
-                            advalue = "";
+                                        .warning("Duplicate name "
+                                                + clauseName
+                                                + " used in header: '"
+                                                + clauseName
+                                                + "'. Duplicate names are specially marked in Bnd with a ~ at the end (which is stripped at printing time).");
+                            while (result.containsKey(clauseName))
+                                clauseName += "~";
                         }
-                        clause.put(adname.trim(), advalue.trim());
-                        del = qt.getSeparator();
-                        hadAttribute = true;
+                        result.put(clauseName, clause);
                     }
                 }
+            } while (del == ',');
 
-                // Check for duplicate names. The aliases list contains
-                // the list of nams, for each check if it exists. If so,
-                // add a number of "~" to make it unique.
-                for (String clauseName : aliases) {
-                    if (result.containsKey(clauseName)) {
-                        if (logger != null && logger.isPedantic())
-                            logger
-                                    .warning("Duplicate name "
-                                            + clauseName
-                                            + " used in header: '"
-                                            + clauseName
-                                            + "'. Duplicate names are specially marked in Bnd with a ~ at the end (which is stripped at printing time).");
-                        while (result.containsKey(clauseName))
-                            clauseName += "~";
-                    }
-                    result.put(clauseName, clause);
+            // Make the clauses unmodifiable, aliases keep sharing their clause
+            Map<Map<String, String>, Map<String, String>> clauses = new IdentityHashMap<Map<String, String>, Map<String, String>>();
+            for (Map.Entry<String, Map<String, String>> entry : result.entrySet()) {
+                Map<String, String> clause = clauses.get(entry.getValue());
+                if (clause == null) {
+                    clause = Collections.unmodifiableMap(entry.getValue());
+                    clauses.put(entry.getValue(), clause);
                 }
+                entry.setValue(clause);
             }
-        } while (del == ',');
-        return result;
+            return Collections.unmodifiableMap(result);
+        }
     }
 
     public static Map<String, String> parseProperties(String input) {
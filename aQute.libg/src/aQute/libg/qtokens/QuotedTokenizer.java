@@ -35,6 +35,35 @@ public class QuotedTokenizer {
 		if ( index == string.length())
 			return null;
 		
+		// Most tokens have no quotes, they are a trimmed part of the string
+		int start = index;
+		int end = index;
+		while (end < string.length()) {
+			char c = string.charAt(end);
+			if (c == '"' || c == '\'' || separators.indexOf(c) >= 0)
+				break;
+			end++;
+		}
+		if (end == string.length() || separators.indexOf(string.charAt(end)) >= 0) {
+			index = end;
+			if (end < string.length()) {
+				index++;
+				if (returnTokens)
+					peek = Character.toString(string.charAt(end));
+				else
+					separator = string.charAt(end);
+			} else if (end > start && Character.isWhitespace(string.charAt(end - 1)))
+				end--;
+
+			while (start < end && string.charAt(start) <= ' ')
+				start++;
+			while (end > start && string.charAt(end - 1) <= ' ')
+				end--;
+			if (start == end && index == string.length())
+				return null;
+			return string.substring(start, end);
+		}
+		
 		StringBuffer sb = new StringBuffer();
 
 		while (index < string.length()) {
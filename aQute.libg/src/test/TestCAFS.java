@@ -2,6 +2,7 @@ package test;
 
 import java.io.*;
 import java.security.*;
+import java.util.*;
 
 import junit.framework.*;
 import aQute.lib.io.*;
@@ -67,4 +68,58 @@ public class TestCAFS extends TestCase {
 
 		cafs.close();
 	}
+
+	public void testConcurrent() throws Throwable {
+		File dir = new File(tmp, getClass().getName() + "-concurrent-" + System.currentTimeMillis());
+		final CAFS cafs = new CAFS(dir, true);
+		try {
+			final int threads = 8;
+			final int files = 50;
+			final SHA1[][] keys = new SHA1[threads][files];
+			final Throwable[] failures = new Throwable[threads];
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				workers[t] = new Thread() {
+					public void run() {
+						try {
+							for (int i = 0; i < files; i++) {
+								// Half of the content is shared between the
+								// threads
+								String content = (i % 2 == 0 ? "shared " : "thread " + thread + " ")
+										+ i;
+								keys[thread][i] = cafs.write(new ByteArrayInputStream(content
+										.getBytes("UTF-8")));
+								InputStream in = cafs.read(keys[thread][i]);
+								assertNotNull(in);
+								assertEquals(content, IO.collect(in, "UTF-8"));
+							}
+						} catch (Throwable e) {
+							// Includes the assertion errors
+							failures[thread] = e;
+						}
+					}
+				};
+				workers[t].start();
+			}
+			for (Thread worker : workers)
+				worker.join();
+
+			for (Throwable e : failures)
+				if (e != null)
+					throw e;
+
+			Set<SHA1> stored = new HashSet<SHA1>();
+			for (SHA1 key : cafs)
+				assertTrue("Stored twice " + key, stored.add(key));
+
+			Set<SHA1> written = new HashSet<SHA1>();
+			for (SHA1[] k : keys)
+				written.addAll(Arrays.asList(k));
+			assertEquals(written, stored);
+			assertEquals(files / 2 + threads * files / 2, stored.size());
+		} finally {
+			cafs.close();
+		}
+	}
 }
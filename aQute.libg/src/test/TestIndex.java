@@ -1,6 +1,7 @@
 package test;
 
 import java.io.*;
+import java.util.*;
 
 import junit.framework.*;
 import aQute.lib.index.*;
@@ -62,4 +63,62 @@ public class TestIndex extends TestCase {
 		
 	}
 
+	public void testBulkLoad() throws Exception {
+		File test = new File("test.tmp");
+		test.delete();
+		int size = 200000;
+		byte[][] keys = new byte[size][];
+		long[] values = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = key(i * 2 + 1);
+			values[i] = i;
+		}
+
+		Index index = new Index(test, 20);
+		index.bulkLoad(keys, values);
+		for (int i = 0; i < size; i++)
+			assertEquals(i, index.search(keys[i]));
+		assertEquals(-1, index.search(key(2)));
+
+		// Inserts must still work after a bulk load
+		index.insert(key(2), 42);
+		assertEquals(42, index.search(key(2)));
+		index.close();
+
+		index = new Index(test, 20);
+		for (int i = 0; i < size; i += 997)
+			assertEquals(i, index.search(keys[i]));
+		assertEquals(42, index.search(key(2)));
+
+		int n = 0;
+		for (Iterator<byte[]> i = index.iterator(); i.hasNext(); i.next())
+			n++;
+		assertEquals(size + 2, n); // the empty key and the inserted key
+		index.close();
+		test.delete();
+	}
+
+	public void testBulkLoadUnsorted() throws Exception {
+		File test = new File("test.tmp");
+		test.delete();
+		Index index = new Index(test, 20);
+		try {
+			index.bulkLoad(new byte[][] { key(2), key(1) }, new long[] { 1, 2 });
+			fail("Unsorted keys must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		index.close();
+		test.delete();
+	}
+
+	static byte[] key(int n) {
+		byte[] key = new byte[20];
+		key[0] = (byte) (n >> 24);
+		key[1] = (byte) (n >> 16);
+		key[2] = (byte) (n >> 8);
+		key[3] = (byte) n;
+		return key;
+	}
+
 }
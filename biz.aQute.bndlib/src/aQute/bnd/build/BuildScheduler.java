@@ -0,0 +1,219 @@
+package aQute.bnd.build;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.lib.osgi.*;
+import aQute.libg.tarjan.*;
+
+/**
+ * Builds a set of projects in dependency order. A project is built when all
+ * the projects it depends on are built, projects that do not depend on each
+ * other are built concurrently. The number of threads is set with the
+ * -parallel instruction of the workspace. A project is locked while it is
+ * built.
+ *
+ * A project is only built when it is out of date or when one of its
+ * dependencies was built, and the fingerprint of its inputs changed, like
+ * {@link Project#build(boolean)}. When a project fails, the projects that
+ * depend on it are not built. The errors and warnings of the projects are
+ * reported on the workspace, prefixed with the project name, in the order the
+ * projects finish.
+ */
+public class BuildScheduler {
+	final Workspace						workspace;
+	final List<Project>					projects		= new ArrayList<Project>();
+	final Map<Project, Set<Project>>	dependencies	= new LinkedHashMap<Project, Set<Project>>();
+	final Map<Project, List<Project>>	dependents		= new HashMap<Project, List<Project>>();
+	final Map<Project, Long>			times			= new LinkedHashMap<Project, Long>();
+	final Set<Project>					built			= new HashSet<Project>();
+	final Set<Project>					failed			= new HashSet<Project>();
+
+	/**
+	 * A build of one project, runs on a worker thread.
+	 */
+	class Job implements Callable<Job> {
+		final Project	project;
+		final boolean	outofdate;
+		final boolean	underTest;
+		boolean			rebuilt;
+		long			time;
+		Throwable		exception;
+
+		Job(Project project, boolean outofdate, boolean underTest) {
+			this.project = project;
+			this.outofdate = outofdate;
+			this.underTest = underTest;
+		}
+
+		public Job call() {
+			long start = System.currentTimeMillis();
+			try {
+				if (project.lock("building")) {
+					try {
+						if (outofdate || project.getBuildFiles(false) == null
+								|| project.getBuildTime() <= project.lastModified()) {
+							rebuilt = project.buildChanged(underTest);
+						}
+					} finally {
+						project.unlock();
+					}
+				}
+			} catch (Throwable e) {
+				exception = e;
+			}
+			time = System.currentTimeMillis() - start;
+			return this;
+		}
+	}
+
+	/**
+	 * Create a scheduler for the given projects. The projects they depend on
+	 * are added as well.
+	 *
+	 * @param workspace
+	 *            the workspace that receives the errors and warnings
+	 * @param projects
+	 *            the projects to build
+	 */
+	public BuildScheduler(Workspace workspace, Collection<Project> projects) throws Exception {
+		this.workspace = workspace;
+		for (Project project : projects)
+			add(project);
+
+		for (Map.Entry<Project, Set<Project>> entry : dependencies.entrySet()) {
+			for (Project dependency : entry.getValue()) {
+				List<Project> list = dependents.get(dependency);
+				if (list == null) {
+					list = new ArrayList<Project>();
+					dependents.put(dependency, list);
+				}
+				list.add(entry.getKey());
+			}
+		}
+	}
+
+	private void add(Project project) {
+		if (dependencies.containsKey(project))
+			return;
+
+		Set<Project> set = new LinkedHashSet<Project>();
+		dependencies.put(project, set);
+		projects.add(project);
+		try {
+			for (Project dependency : project.getDependson()) {
+				if (dependency != project) {
+					set.add(dependency);
+					add(dependency);
+				}
+			}
+		} catch (Exception e) {
+			workspace.error("Cannot calculate the dependencies of %s: %s", project, e);
+			failed.add(project);
+		}
+	}
+
+	/**
+	 * Build the projects.
+	 *
+	 * @param underTest
+	 *            passed to the build of each project, see
+	 *            {@link Project#build(boolean)}
+	 * @return true if all projects were built without errors
+	 */
+	public boolean build(boolean underTest) throws Exception {
+		// Projects in a cycle can never be built since they wait for each
+		// other
+		Set<Project> cyclic = new HashSet<Project>();
+		for (Set<Project> component : Tarjan.tarjan(dependencies)) {
+			if (component.size() > 1) {
+				workspace.error("Circular dependency between projects %s", component);
+				cyclic.addAll(component);
+			}
+		}
+
+		Map<Project, Integer> waiting = new HashMap<Project, Integer>();
+		LinkedList<Project> ready = new LinkedList<Project>();
+		for (Project project : projects) {
+			if (failed.contains(project) || cyclic.contains(project))
+				continue;
+
+			int n = dependencies.get(project).size();
+			waiting.put(project, n);
+			if (n == 0)
+				ready.add(project);
+		}
+
+		int threads = workspace.getParallel();
+		CompletionService<Job> service = new ExecutorCompletionService<Job>(
+				Processor.getExecutor());
+		int running = 0;
+
+		while (!ready.isEmpty() || running > 0) {
+			while (!ready.isEmpty() && running < threads) {
+				Project project = ready.removeFirst();
+				boolean outofdate = false;
+				for (Project dependency : dependencies.get(project))
+					outofdate |= built.contains(dependency);
+
+				service.submit(new Job(project, outofdate, underTest));
+				running++;
+			}
+
+			Job job = service.take().get();
+			running--;
+
+			Project project = job.project;
+			times.put(project, job.time);
+			workspace.trace("%s %s in %s ms", project, job.rebuilt ? "built" : "up to date",
+					job.time);
+
+			if (job.exception != null)
+				workspace.error("Building %s", job.exception, project);
+
+			boolean ok = job.exception == null && project.isOk();
+			workspace.getInfo(project, project + ": ");
+			if (!ok) {
+				failed.add(project);
+				continue;
+			}
+
+			if (job.rebuilt)
+				built.add(project);
+
+			List<Project> list = dependents.get(project);
+			if (list != null) {
+				for (Project dependent : list) {
+					Integer n = waiting.get(dependent);
+					if (n != null) {
+						waiting.put(dependent, n - 1);
+						if (n == 1)
+							ready.add(dependent);
+					}
+				}
+			}
+		}
+
+		for (Project project : projects) {
+			if (!times.containsKey(project) && !failed.contains(project)
+					&& !cyclic.contains(project))
+				workspace.error("Not built because a dependency failed: %s", project);
+		}
+		return failed.isEmpty() && cyclic.isEmpty() && times.size() == projects.size();
+	}
+
+	/**
+	 * Answer the time in milliseconds each project took, in the order the
+	 * projects finished.
+	 */
+	public Map<Project, Long> getTimes() {
+		return times;
+	}
+
+	/**
+	 * Answer the projects that were actually rebuilt.
+	 */
+	public Set<Project> getBuilt() {
+		return built;
+	}
+}
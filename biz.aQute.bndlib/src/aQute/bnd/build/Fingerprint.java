@@ -0,0 +1,210 @@
+package aQute.bnd.build;
+
+import java.io.*;
+import java.net.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.lib.hex.*;
+import aQute.lib.osgi.*;
+
+/**
+ * The fingerprint of the inputs of a project build. The fingerprint is a
+ * SHA-1 over the flattened properties of the project, the content of the
+ * build path and boot class path and the content of the files in the project
+ * directory, which includes the output directory, the bnd files and the
+ * resources. The target directory and hidden files are not part of it. Only
+ * contents and names are used, not the modification times, and the paths in
+ * the properties are made relative to the workspace, so a fresh checkout of
+ * the same sources in another place has the same fingerprint.
+ *
+ * The inputs outside the project directory are added as well: the included
+ * property files, the source path, the bnd files of the sub builders and the
+ * sources of the include resource instructions. When such a source is a URL
+ * there is no fingerprint and the project is always built.
+ *
+ * The digests of the files are kept for the VM as long as their length and
+ * modification time do not change, the jars on the build path are then only
+ * read once for all the projects that use them. A digest is not used again
+ * when the file could have been written in the same tick of the modification
+ * time as when it was digested, or before the last fingerprint was recorded.
+ */
+class Fingerprint {
+	final static String					ALGORITHM	= "SHA-1";
+
+	/**
+	 * Some file systems keep the modification time in steps of up to 2
+	 * seconds.
+	 */
+	final static long					GRANULARITY	= 2000;
+
+	static class FileDigest {
+		final long		length;
+		final long		lastModified;
+		final long		digested;
+		final byte[]	digest;
+
+		FileDigest(long length, long lastModified, long digested, byte[] digest) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.digested = digested;
+			this.digest = digest;
+		}
+	}
+
+	final static Map<File, FileDigest>	digests		= new ConcurrentHashMap<File, FileDigest>();
+
+	final MessageDigest					digest;
+	final File							base;
+	final String[]						roots;
+	final long							recorded;
+
+	Fingerprint(Project project) throws Exception {
+		digest = MessageDigest.getInstance(ALGORITHM);
+		base = project.getBase().getCanonicalFile();
+		File workspace = project.getWorkspace().getBase();
+		roots = new String[] { workspace.getAbsolutePath(), workspace.getCanonicalPath() };
+		recorded = new File(project.getTarget(), Constants.BUILDFINGERPRINT).lastModified();
+	}
+
+	/**
+	 * Answer the fingerprint of the inputs of a build of the project.
+	 *
+	 * @return the fingerprint or null when an input can not be fingerprinted
+	 */
+	static String getFingerprint(Project project, boolean underTest) throws Exception {
+		// Prepare sets properties like basedir, these hold absolute paths
+		project.prepare();
+		Fingerprint fp = new Fingerprint(project);
+		fp.update("undertest=" + underTest);
+
+		Map<Object, Object> properties = new TreeMap<Object, Object>(project
+				.getFlattenedProperties());
+		for (Map.Entry<Object, Object> entry : properties.entrySet())
+			fp.update(entry.getKey() + "=" + fp.relative(String.valueOf(entry.getValue())));
+
+		for (Container c : project.getBuildpath())
+			fp.add("buildpath", c.getFile(), null);
+		for (Container c : project.getBootclasspath())
+			fp.add("bootclasspath", c.getFile(), null);
+
+		fp.add("", project.getBase(), project.getTarget());
+
+		Set<File> outside = new TreeSet<File>();
+		fp.outside(outside, project.getIncluded());
+		fp.outside(outside, project.getSourcePath());
+		for (Builder builder : project.getSubBuilders()) {
+			if (builder.getPropertiesFile() != null)
+				fp.outside(outside, Collections.singleton(builder.getPropertiesFile()));
+			fp.outside(outside, builder.getIncluded());
+
+			for (String source : builder.getIncludeResourceSources()) {
+				if (source.startsWith("@")) {
+					// A file, a URL or a JAR on the class path
+					source = source.substring(1);
+					int n = source.lastIndexOf("!/");
+					if (n > 0)
+						source = source.substring(0, n);
+					File file = builder.getFile(source);
+					if (file.exists())
+						fp.outside(outside, Collections.singleton(file));
+					else if (isURL(source))
+						return null;
+				} else
+					fp.outside(outside, Collections.singleton(builder.getFile(source)));
+			}
+		}
+		for (File file : outside)
+			fp.add(fp.relative(file.getPath()), file, null);
+
+		return Hex.toHexString(fp.digest.digest());
+	}
+
+	static boolean isURL(String source) {
+		try {
+			new URL(source);
+			return true;
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Collect the files that are not in the project directory, those are
+	 * already part of the fingerprint.
+	 */
+	void outside(Set<File> outside, Collection<File> files) throws IOException {
+		String prefix = base.getPath() + File.separator;
+		for (File file : files) {
+			file = file.getCanonicalFile();
+			if (!file.equals(base) && !file.getPath().startsWith(prefix))
+				outside.add(file);
+		}
+	}
+
+	/**
+	 * Replace the workspace directory in a value, properties like project.dir
+	 * hold absolute paths.
+	 */
+	String relative(String value) {
+		for (String root : roots) {
+			value = value.replace(root, "${workspace}");
+			value = value.replace(root.replace(File.separatorChar, '/'), "${workspace}");
+		}
+		return value;
+	}
+
+	void update(String s) throws UnsupportedEncodingException {
+		digest.update(s.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Add a file or the files in a directory, in name order. A file that does
+	 * not exist only adds its name.
+	 */
+	void add(String name, File file, File exclude) throws Exception {
+		if (file == null || file.equals(exclude))
+			return;
+
+		update(name);
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null)
+				return;
+
+			Arrays.sort(names);
+			for (String sub : names) {
+				if (!sub.startsWith("."))
+					add(name + "/" + sub, new File(file, sub), exclude);
+			}
+		} else if (file.isFile())
+			digest.update(getDigest(file));
+	}
+
+	byte[] getDigest(File file) throws Exception {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		FileDigest fd = digests.get(file);
+		if (fd != null && fd.length == length && fd.lastModified == lastModified
+				&& fd.digested - lastModified > GRANULARITY
+				&& recorded - lastModified > GRANULARITY)
+			return fd.digest;
+
+		long digested = System.currentTimeMillis();
+		MessageDigest md = MessageDigest.getInstance(ALGORITHM);
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int size;
+			while ((size = in.read(buffer)) > 0)
+				md.update(buffer, 0, size);
+		} finally {
+			in.close();
+		}
+		fd = new FileDigest(length, lastModified, digested, md.digest());
+		digests.put(file, fd);
+		return fd.digest;
+	}
+}
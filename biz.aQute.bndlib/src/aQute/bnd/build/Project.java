@@ -12,6 +12,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -84,7 +85,7 @@ public class Project extends Processor {
 	int							revision;
 	File						files[];
 	private long				buildtime;
-	static List<Project>		trail					= new ArrayList<Project>();
+	static List<Project>		trail					= Collections.synchronizedList(new ArrayList<Project>());
 	boolean						delayRunDependencies	= false;
 
 	public Project(Workspace workspace, File projectDir, File buildFile) throws Exception {
@@ -404,7 +405,7 @@ public class Project extends Processor {
 	 */
 	public List<Container> getBundles(Strategy strategyx, String spec) throws Exception {
 		List<Container> result = new ArrayList<Container>();
-		Map<String, Map<String, String>> bundles = parseHeader(spec);
+		Map<String, Map<String, String>> bundles = getParsedHeader(spec);
 
 		try {
 			for (Iterator<Map.Entry<String, Map<String, String>>> i = bundles.entrySet().iterator(); i
@@ -482,7 +483,7 @@ public class Project extends Processor {
 	}
 	
 	public void appendPackages(Strategy strategyx, String spec, Collection<? super Container> result) throws Exception {
-		Map<String, Map<String, String>> packages = parseHeader(spec);
+		Map<String, Map<String, String>> packages = getParsedHeader(spec);
 		
 		for (Entry<String, Map<String, String>> entry : packages.entrySet()) {
 			String pkgName = entry.getKey();
@@ -1091,20 +1092,83 @@ public class Project extends Processor {
 		for (Project dependency : getDependson()) {
 			if (dependency != this) {
 				if (outofdate || dependency.getBuildTime() <= dependency.lastModified()) {
-					dependency.buildLocal(false);
-					outofdate = true;
+					if (dependency.buildChanged(false))
+						outofdate = true;
 				}
 			}
 		}
 
 		if (files == null || outofdate || getBuildTime() <= lastModified()) {
-			trace("Building " + this);
-			files = buildLocal(underTest);
+			buildChanged(underTest);
 		}
 
 		return files;
 	}
 
+	/**
+	 * Build the project unless the fingerprint of its inputs is the same as
+	 * the fingerprint of the last build and the files of that build still
+	 * exist.
+	 * 
+	 * @param underTest
+	 * @return true if the project was built
+	 * @throws Exception
+	 */
+	boolean buildChanged(boolean underTest) throws Exception {
+		if (getProperty(NOBUNDLES) != null)
+			return false;
+
+		long buildtime = System.currentTimeMillis();
+		String fingerprint = getFingerprint(underTest);
+		File[] previous = fingerprint == null ? null : getBuild(fingerprint);
+		if (previous != null) {
+			trace("Not building %s, fingerprint %s is unchanged", this, fingerprint);
+			this.files = previous;
+			this.buildtime = buildtime;
+			return false;
+		}
+
+		trace("Building " + this);
+		files = buildLocal(underTest, fingerprint);
+		return true;
+	}
+
+	/**
+	 * Answer the fingerprint of the inputs of a build of this project.
+	 * 
+	 * @param underTest
+	 * @return a hex string, or null when the inputs can not be fingerprinted,
+	 *         like an included resource from a URL
+	 * @throws Exception
+	 */
+	public String getFingerprint(boolean underTest) throws Exception {
+		return Fingerprint.getFingerprint(this, underTest);
+	}
+
+	/**
+	 * Answer the files of the last build if it was made with the given
+	 * fingerprint and all its files exist.
+	 */
+	private File[] getBuild(String fingerprint) throws Exception {
+		File fp = new File(getTarget(), BUILDFINGERPRINT);
+		File bfs = new File(getTarget(), BUILDFILES);
+		if (!fp.isFile() || !bfs.isFile() || !fingerprint.equals(IO.collect(fp).trim()))
+			return null;
+
+		List<File> files = newList();
+		for (String s : IO.collect(bfs).split("\n")) {
+			s = s.trim();
+			if (s.length() == 0)
+				continue;
+
+			File f = new File(s);
+			if (!f.isFile())
+				return null;
+			files.add(f);
+		}
+		return files.toArray(new File[files.size()]);
+	}
+
 	/**
 	 * This method must only be called when it is sure that the project has been
 	 * build before in the same session.
@@ -1157,9 +1221,20 @@ public class Project extends Processor {
 		if (getProperty(NOBUNDLES) != null)
 			return null;
 
+		return buildLocal(underTest, null);
+	}
+
+	/**
+	 * Build and record the fingerprint of the inputs when it is given. A build
+	 * without a fingerprint, like a forced build, is never skipped by the next
+	 * {@link #build(boolean)}.
+	 */
+	private File[] buildLocal(boolean underTest, String fingerprint) throws Exception {
 		long buildtime = System.currentTimeMillis();
 		File bfs = new File(getTarget(), BUILDFILES);
 		bfs.delete();
+		File fp = new File(getTarget(), BUILDFINGERPRINT);
+		fp.delete();
 
 		files = null;
 		ProjectBuilder builder = getBuilder(null);
@@ -1188,6 +1263,18 @@ public class Project extends Processor {
 			} finally {
 				fw.close();
 			}
+
+			// The fingerprint of the inputs, a build with the same
+			// fingerprint is not needed
+			if (fingerprint != null) {
+				fw = new FileWriter(fp);
+				try {
+					fw.append(fingerprint);
+					fw.append("\n");
+				} finally {
+					fw.close();
+				}
+			}
 			getWorkspace().changedFile(bfs);
 			this.buildtime = buildtime;
 			return files;
@@ -165,6 +165,21 @@ public class Workspace extends Processor {
 		return projects;
 	}
 
+	/**
+	 * Build all the projects in the workspace in dependency order. Projects
+	 * that do not depend on each other are built concurrently when -parallel
+	 * is set.
+	 * 
+	 * @param underTest
+	 *            build the projects for testing
+	 * @return the scheduler with the build times per project
+	 */
+	public BuildScheduler build(boolean underTest) throws Exception {
+		BuildScheduler scheduler = new BuildScheduler(this, getAllProjects());
+		scheduler.build(underTest);
+		return scheduler;
+	}
+
 	/**
 	 * Inform any listeners that we changed a file (created/deleted/changed).
 	 * 
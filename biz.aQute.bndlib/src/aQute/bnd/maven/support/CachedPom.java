@@ -2,6 +2,7 @@ package aQute.bnd.maven.support;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
 
 public class CachedPom extends Pom {
 	final MavenEntry				maven;
@@ -11,6 +12,21 @@ public class CachedPom extends Pom {
 		this.maven = mavenEntry;
 	}
 
+	/**
+	 * The dependencies of a pom in the repository do not change, they are
+	 * resolved once per scope and repositories and shared by all users of the
+	 * maven cache.
+	 */
+	public Set<Pom> getDependencies(Scope scope, URI... urls) throws Exception {
+		String key = this + ";" + scope + ";" + Arrays.toString(urls);
+		Set<Pom> result = maven.maven.resolved.get(key);
+		if (result == null) {
+			result = Collections.unmodifiableSet(super.getDependencies(scope, urls));
+			maven.maven.resolved.put(key, result);
+		}
+		return new LinkedHashSet<Pom>(result);
+	}
+
 	public File getArtifact() throws Exception {
 		return maven.getArtifact();
 	}
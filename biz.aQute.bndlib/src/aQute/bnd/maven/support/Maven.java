@@ -12,6 +12,7 @@ import java.util.concurrent.*;
 public class Maven {
 	final File						userHome	= new File(System.getProperty("user.home"));
 	final Map<String, MavenEntry>	entries		= new ConcurrentHashMap<String, MavenEntry>();
+	final Map<String, Set<Pom>>		resolved	= new ConcurrentHashMap<String, Set<Pom>>();
 	final static String[]			ALGORITHMS	= { "md5", "sha1" };
 	boolean							usecache	= false;
 	final Executor					executor;
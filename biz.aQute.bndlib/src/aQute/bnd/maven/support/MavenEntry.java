@@ -76,6 +76,7 @@ public class MavenEntry implements Closeable {
 	private void remove0() {
 		System.out.println("Removing " + dir);
 		poms.clear();
+		maven.resolved.clear();
 		for (File sub : dir.listFiles()) {
 			if (!sub.getName().equals(DirectoryLock.LOCKNAME))
 				sub.delete();
@@ -85,6 +86,13 @@ public class MavenEntry implements Closeable {
 	}
 
 	private synchronized CachedPom getPom0(URI... urls) throws Exception {
+		// Another thread may have fetched it while we waited
+		for (URI url : urls) {
+			CachedPom pom = poms.get(url);
+			if (pom != null)
+				return pom;
+		}
+
 		String pomPath = this.path + ".pom";
 		File pomFile = new File(maven.repository, pomPath);
 		if (!pomFile.isFile()) {
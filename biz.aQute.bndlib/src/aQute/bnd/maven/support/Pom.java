@@ -3,6 +3,7 @@ package aQute.bnd.maven.support;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.parsers.*;
 import javax.xml.xpath.*;
@@ -158,33 +159,54 @@ public abstract class Pom {
 		}
 	}
 
+	/**
+	 * Answer the transitive dependencies in the given scope, breadth first.
+	 * The poms of a level are fetched concurrently on the executor of the
+	 * maven cache, each coordinate is only fetched once.
+	 */
 	public Set<Pom> getDependencies(Scope scope, URI... urls) throws Exception {
 		Set<Pom> result = new LinkedHashSet<Pom>();
+		Map<String, Future<CachedPom>> fetched = new HashMap<String, Future<CachedPom>>();
 
-		List<Rover> queue = new ArrayList<Rover>();
+		List<Rover> level = new ArrayList<Rover>();
 		for (Dependency d : dependencies) {
-			queue.add(new Rover(null, d));
+			level.add(new Rover(null, d));
 		}
 
-		while (!queue.isEmpty()) {
-			Rover rover = queue.remove(0);
-			Dependency dep = rover.dependency;
-			String groupId = replace(dep.groupId);
-			String artifactId = replace(dep.artifactId);
-			String version = replace(dep.version);
-
-			String name = groupId + "+" + artifactId;
-
-			if (rover.excludes(name))
-				continue;
+		while (!level.isEmpty()) {
+			List<Rover> rovers = new ArrayList<Rover>();
+			List<Future<CachedPom>> poms = new ArrayList<Future<CachedPom>>();
+			for (Rover rover : level) {
+				Dependency dep = rover.dependency;
+				String groupId = replace(dep.groupId);
+				String artifactId = replace(dep.artifactId);
+				String version = replace(dep.version);
+
+				String name = groupId + "+" + artifactId;
+
+				if (rover.excludes(name))
+					continue;
+
+				if (dep.scope == scope && !dep.optional) {
+					String key = name + "+" + version;
+					Future<CachedPom> pom = fetched.get(key);
+					if (pom == null) {
+						pom = fetch(groupId, artifactId, version, urls);
+						fetched.put(key, pom);
+					}
+					rovers.add(rover);
+					poms.add(pom);
+				}
+			}
 
-			if (dep.scope == scope && !dep.optional) {
-				Pom sub = maven.getPom(groupId, artifactId, version, urls);
+			level = new ArrayList<Rover>();
+			for (int i = 0; i < rovers.size(); i++) {
+				Pom sub = get(poms.get(i));
 
 				if (!result.contains(sub)) {
 					result.add(sub);
 					for (Dependency subd : sub.dependencies) {
-						queue.add(new Rover(rover, subd));
+						level.add(new Rover(rovers.get(i), subd));
 					}
 				}
 			}
@@ -192,6 +214,27 @@ public abstract class Pom {
 		return result;
 	}
 
+	private Future<CachedPom> fetch(final String groupId, final String artifactId,
+			final String version, final URI[] urls) {
+		FutureTask<CachedPom> task = new FutureTask<CachedPom>(new Callable<CachedPom>() {
+			public CachedPom call() throws Exception {
+				return maven.getPom(groupId, artifactId, version, urls);
+			}
+		});
+		maven.schedule(task);
+		return task;
+	}
+
+	private static <T> T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
 	protected String replace(String in) {
 		return in;
 	}
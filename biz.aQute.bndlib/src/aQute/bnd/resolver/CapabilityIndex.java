@@ -0,0 +1,125 @@
+package aQute.bnd.resolver;
+
+import java.util.*;
+
+import aQute.bnd.resolver.Resource.Capability;
+import aQute.bnd.resolver.Resource.Requirement;
+import aQute.libg.version.*;
+
+/**
+ * An index of the capabilities of a set of resources. The capabilities are
+ * kept per type and name, sorted on version, so that the candidates for a
+ * requirement are found with a lookup and a binary search on the low end of
+ * its version range. The packages exported by an attached fragment are
+ * provided by its host.
+ */
+class CapabilityIndex {
+	/**
+	 * A capability and the resource that provides it.
+	 */
+	static class Entry implements Comparable<Entry> {
+		final Capability	capability;
+		final Resource		provider;
+
+		Entry(Capability capability, Resource provider) {
+			this.capability = capability;
+			this.provider = provider;
+		}
+
+		public int compareTo(Entry o) {
+			return capability.version.compareTo(o.capability.version);
+		}
+	}
+
+	final Map<Resource.Type, Map<String, List<Entry>>>	index	= new HashMap<Resource.Type, Map<String, List<Entry>>>();
+	int													size;
+	int													lookups;
+	int													matches;
+
+	CapabilityIndex(Collection<Resource> resources) {
+		for (Resource r : resources) {
+			for (Capability cap : r.capabilities)
+				list(cap).add(new Entry(cap, r));
+		}
+		for (Map<String, List<Entry>> names : index.values()) {
+			for (List<Entry> entries : names.values())
+				Collections.sort(entries);
+		}
+	}
+
+	/**
+	 * Add the exported packages of a fragment to its host.
+	 */
+	void attach(Resource host, Resource fragment) {
+		for (Capability cap : fragment.capabilities) {
+			if (cap.type == Resource.Type.PACKAGE) {
+				List<Entry> entries = list(cap);
+				Entry entry = new Entry(cap, host);
+				int n = Collections.binarySearch(entries, entry);
+				entries.add(n < 0 ? -n - 1 : n, entry);
+			}
+		}
+	}
+
+	private List<Entry> list(Capability cap) {
+		Map<String, List<Entry>> names = index.get(cap.type);
+		if (names == null) {
+			names = new HashMap<String, List<Entry>>();
+			index.put(cap.type, names);
+		}
+		List<Entry> entries = names.get(cap.name);
+		if (entries == null) {
+			entries = new ArrayList<Entry>(1);
+			names.put(cap.name, entries);
+		}
+		size++;
+		return entries;
+	}
+
+	/**
+	 * Answer the resources that have a capability that matches the
+	 * requirement.
+	 */
+	Set<Resource> find(Requirement req, Set<Resource> result) {
+		lookups++;
+		Map<String, List<Entry>> names = index.get(req.type);
+		if (names == null)
+			return result;
+
+		List<Entry> entries = names.get(req.name);
+		if (entries == null)
+			return result;
+
+		VersionRange range = req.range;
+		for (int i = first(entries, range.getLow()); i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			if (req.matches(entry.capability)) {
+				matches++;
+				result.add(entry.provider);
+			} else if (range.isRange() && entry.capability.version.compareTo(range.getHigh()) > 0)
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Answer the index of the first entry with a version that is not lower
+	 * than the given version.
+	 */
+	static int first(List<Entry> entries, Version low) {
+		int lo = 0;
+		int hi = entries.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entries.get(mid).capability.version.compareTo(low) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -9,4 +9,28 @@ public class Resolution {
 	public Set<Requirement>				unresolved;
 	public MultiMap<Requirement, Resource>	multiple;
 	public Map<Requirement, Resource>		unique;
+
+	/**
+	 * The chosen provider per requirement for each bundle, null if no
+	 * consistent wiring was found.
+	 */
+	public Map<Resource, Map<Requirement, Resource>>	wiring;
+
+	// Statistics of the resolve
+	public int								resources;
+	public int								capabilities;
+	public int								requirements;
+	public int								lookups;
+	public int								matches;
+	public long								indexTime;
+	public long								resolveTime;
+	public long								solveTime;
+	public int								steps;
+
+	public String toString() {
+		return "Resolution [resources=" + resources + ", capabilities=" + capabilities
+				+ ", requirements=" + requirements + ", lookups=" + lookups + ", matches="
+				+ matches + ", indexTime=" + indexTime + "ms, resolveTime=" + resolveTime
+				+ "ms, solveTime=" + solveTime + "ms, steps=" + steps + "]";
+	}
 }
@@ -30,6 +30,8 @@ public class Resolver extends Processor {
 	}
 
 	public Resolution resolve() throws Exception {
+		long start = System.currentTimeMillis();
+
 		// Split fragments and bundles
 		Set<Resource> active = new HashSet<Resource>();
 		Set<Resource> fragments = new HashSet<Resource>();
@@ -44,11 +46,23 @@ public class Resolver extends Processor {
 				fragments.add(r);
 		}
 
+		// Index the capabilities of the bundles so that a requirement
+		// does not have to be compared with every capability
+		cache.clear();
+		CapabilityIndex index = new CapabilityIndex(active);
+		long indexed = System.currentTimeMillis();
+
 		// Attach fragments
 		for (Resource r : fragments) {
-			Collection<Resource> hosts = find(active, r.requirements, new HashSet<Resource>());
+			Set<Resource.Requirement> hostRequirements = new HashSet<Resource.Requirement>();
+			for (Resource.Requirement req : r.requirements)
+				if (req.type == Resource.Type.HOST)
+					hostRequirements.add(req);
+
+			Collection<Resource> hosts = find(index, hostRequirements, new HashSet<Resource>());
 			for (Resource host : hosts) {
-				host.fragments.add(host);
+				host.fragments.add(r);
+				index.attach(host, r);
 			}
 		}
 
@@ -68,7 +82,7 @@ public class Resolver extends Processor {
 		MultiMap<Requirement, Resource> multiple = new MultiMap<Requirement, Resource>();
 
 		for (Resource.Requirement req : reqs) {
-			Collection<Resource> solutions = find(active, req, new HashSet<Resource>());
+			Collection<Resource> solutions = index.find(req, new HashSet<Resource>());
 			if (solutions.isEmpty()) {
 				if (req.optional)
 					optional.add(req);
@@ -114,7 +128,7 @@ public class Resolver extends Processor {
 					delta.removeAll(x);
 
 					// We've removed bundles from the possible solutions
-					for (Iterator<Resource> it = multiple.all(); i.hasNext();) {
+					for (Iterator<Resource> it = multiple.all(); it.hasNext();) {
 						Resource r = it.next();
 						if (delta.contains(r)) {
 							it.remove();
@@ -128,17 +142,65 @@ public class Resolver extends Processor {
 		res.multiple = multiple;
 		res.unique = unique;
 		res.unresolved = unresolved;
+
+		// Pick the candidates when everything can be resolved
+		long solving = System.currentTimeMillis();
+		if (unresolved.isEmpty())
+			solve(active, index, res);
+
+		res.solveTime = System.currentTimeMillis() - solving;
+		res.resources = resources.size();
+		res.capabilities = index.size();
+		res.requirements = reqs.size();
+		res.lookups = index.lookups;
+		res.matches = index.matches;
+		res.indexTime = indexed - start;
+		res.resolveTime = solving - indexed;
+		trace("resolved %s resources, %s capabilities, %s requirements: index %s ms, resolve %s ms, solve %s ms in %s steps",
+				res.resources, res.capabilities, res.requirements, res.indexTime, res.resolveTime,
+				res.solveTime, res.steps);
 		return res;
 	}
 
-	private Collection<Resource> find(Set<Resource> active, Set<Resource.Requirement> requirements,
-			Set<Resource> result) {
+	/**
+	 * Find a consistent wiring for the active bundles, honoring the uses
+	 * constraints. The wiring is set in the resolution, it remains null when
+	 * there is no consistent wiring.
+	 */
+	private void solve(Set<Resource> active, CapabilityIndex index, Resolution res)
+			throws Exception {
+		Solver solver = new Solver(active, index);
+		Resource[] wires = solver.solve(getParallel());
+		res.steps = solver.steps;
+		if (wires == null) {
+			if (solver.gaveUp)
+				error("Resolution gave up after %s steps, last conflict: %s", solver.steps,
+						solver.conflict);
+			else
+				error("No consistent wiring: %s", solver.conflict);
+			return;
+		}
+
+		res.wiring = new HashMap<Resource, Map<Requirement, Resource>>();
+		for (Solver.Slot slot : solver.slots) {
+			Resource provider = wires[slot.index];
+			if (provider != null) {
+				Map<Requirement, Resource> map = res.wiring.get(slot.owner);
+				if (map == null)
+					res.wiring.put(slot.owner, map = new HashMap<Requirement, Resource>());
+				map.put(slot.requirement, provider);
+			}
+		}
+	}
+
+	private Collection<Resource> find(CapabilityIndex index,
+			Set<Resource.Requirement> requirements, Set<Resource> result) {
 		for (Resource.Requirement req : requirements) {
 			Set<Resource> resources = cache.get(req);
 			if (resources != null) {
 				result.addAll(resources);
 			} else {
-				resources = find(active, req, new HashSet<Resource>());
+				resources = index.find(req, new HashSet<Resource>());
 				cache.put(req, resources);
 				result.addAll(resources);
 			}
@@ -146,18 +208,6 @@ public class Resolver extends Processor {
 		return result;
 	}
 
-	private Set<Resource> find(Set<Resource> active, Requirement req, Set<Resource> result) {
-		for (Resource r : active) {
-			for (Resource.Capability cap : r.capabilities) {
-				if ( cap.name.equals(req.name))
-					System.out.println("Yes");
-				if (req.matches(cap))
-					result.add(r);
-			}
-		}
-		return result;
-	}
-
 	public void add(File file) throws IOException {
 		JarFile jf = new JarFile(file);
 		try {
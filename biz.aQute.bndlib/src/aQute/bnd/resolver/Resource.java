@@ -52,14 +52,20 @@ public class Resource {
 	}
 
 	class Capability {
-		final Type	type;
-		final String	name;
-		final Version	version;
+		final Type			type;
+		final String		name;
+		final Version		version;
+		final Set<String>	uses;
 
 		Capability(Type type, String name, Version version) {
+			this(type, name, version, Collections.<String> emptySet());
+		}
+
+		Capability(Type type, String name, Version version, Set<String> uses) {
 			this.type = type;
 			this.name = name;
 			this.version = version;
+			this.uses = uses;
 		}
 
 		Resource getDeclaredResource() {
@@ -128,8 +134,13 @@ public class Resource {
 		Map<String, Map<String, String>> exports = resolver.parseHeader(main
 				.getValue(Constants.EXPORT_PACKAGE));
 		for (Map.Entry<String, Map<String, String>> clause : exports.entrySet()) {
+			Set<String> uses = new HashSet<String>();
+			String directive = clause.getValue().get(Constants.USES_DIRECTIVE);
+			if (directive != null)
+				uses.addAll(Processor.split(directive));
+			uses.remove(clause.getKey());
 			capabilities.add(new Capability(Type.PACKAGE, clause.getKey(), version(clause
-					.getValue().get(Constants.VERSION_ATTRIBUTE))));
+					.getValue().get(Constants.VERSION_ATTRIBUTE)), uses));
 		}
 	}
 
@@ -0,0 +1,378 @@
+package aQute.bnd.resolver;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import aQute.bnd.resolver.Resource.Capability;
+import aQute.bnd.resolver.Resource.Requirement;
+import aQute.lib.osgi.*;
+
+/**
+ * Finds a consistent wiring for a set of bundles. Every mandatory import and
+ * required bundle is wired to one of its candidates, optional requirements
+ * are wired when possible. A wiring is consistent when no bundle can see a
+ * package from two different exporters through the uses constraints of the
+ * packages it imports.
+ *
+ * The search picks the candidates with backtracking, the requirements with
+ * the fewest candidates first and the highest version first. After each
+ * choice the bundle and the bundles that are wired to it, directly or
+ * indirectly, are checked. The package space of each bundle is cached and
+ * only calculated again when one of its wires changes. The requirements of
+ * an attached fragment are wired by its host.
+ *
+ * With more than one thread the candidates of the first requirement with a
+ * choice are searched concurrently, the first candidate in order that leads
+ * to a solution wins.
+ */
+class Solver {
+	final static int								MAX_STEPS	= 100000;
+
+	/**
+	 * A requirement of a bundle that must be wired.
+	 */
+	static class Slot {
+		final int			index;
+		final Resource		owner;
+		final Requirement	requirement;
+		final Resource[]	candidates;
+
+		Slot(int index, Resource owner, Requirement requirement, Resource[] candidates) {
+			this.index = index;
+			this.owner = owner;
+			this.requirement = requirement;
+			this.candidates = candidates;
+		}
+
+		int options() {
+			return candidates.length + (requirement.optional ? 1 : 0);
+		}
+	}
+
+	final List<Slot>								slots		= new ArrayList<Slot>();
+	final Map<Resource, List<Slot>>					owned		= new HashMap<Resource, List<Slot>>();
+	final Map<Resource, Map<String, Set<String>>>	exports		= new HashMap<Resource, Map<String, Set<String>>>();
+	final AtomicInteger								best		= new AtomicInteger(Integer.MAX_VALUE);
+	int												steps;
+	String											conflict;
+	boolean											gaveUp;
+
+	Solver(Collection<Resource> bundles, CapabilityIndex index) {
+		List<Slot> list = new ArrayList<Slot>();
+		for (Resource bundle : bundles) {
+			Map<String, Set<String>> packages = new HashMap<String, Set<String>>();
+			exports.put(bundle, packages);
+			add(packages, bundle);
+			for (Resource fragment : bundle.fragments)
+				add(packages, fragment);
+
+			owned.put(bundle, new ArrayList<Slot>());
+			add(list, index, bundle, bundle);
+			for (Resource fragment : bundle.fragments)
+				add(list, index, bundle, fragment);
+		}
+
+		// The forced choices first, then the fewest candidates
+		Collections.sort(list, new Comparator<Slot>() {
+			public int compare(Slot a, Slot b) {
+				if (a.requirement.optional != b.requirement.optional)
+					return a.requirement.optional ? 1 : -1;
+				return a.candidates.length - b.candidates.length;
+			}
+		});
+		for (Slot slot : list) {
+			slot = new Slot(slots.size(), slot.owner, slot.requirement, slot.candidates);
+			slots.add(slot);
+			owned.get(slot.owner).add(slot);
+		}
+	}
+
+	private void add(Map<String, Set<String>> packages, Resource resource) {
+		for (Capability cap : resource.capabilities) {
+			if (cap.type == Resource.Type.PACKAGE) {
+				Set<String> uses = packages.get(cap.name);
+				if (uses == null)
+					packages.put(cap.name, uses = new HashSet<String>());
+				uses.addAll(cap.uses);
+			}
+		}
+	}
+
+	private void add(List<Slot> list, CapabilityIndex index, Resource owner, Resource declarer) {
+		for (Requirement req : declarer.requirements) {
+			if (req.type == Resource.Type.HOST)
+				continue;
+
+			// Unresolved requirements are reported by the resolver
+			List<Resource> candidates = new ArrayList<Resource>(index.find(req,
+					new LinkedHashSet<Resource>()));
+			if (candidates.isEmpty())
+				continue;
+
+			// Highest version first
+			Collections.sort(candidates, new Comparator<Resource>() {
+				public int compare(Resource a, Resource b) {
+					return b.version.compareTo(a.version);
+				}
+			});
+			list.add(new Slot(list.size(), owner, req, candidates
+					.toArray(new Resource[candidates.size()])));
+		}
+	}
+
+	/**
+	 * Search a consistent wiring.
+	 *
+	 * @param threads
+	 *            the number of threads that may be used
+	 * @return the wires per slot or null if there is no consistent wiring
+	 */
+	Resource[] solve(int threads) throws Exception {
+		// Split on the first slot with a choice
+		int split = -1;
+		for (Slot slot : slots) {
+			if (slot.options() > 1) {
+				split = slot.index;
+				break;
+			}
+		}
+
+		if (threads <= 1 || split < 0) {
+			Search search = new Search(-1, 0);
+			return finish(search, search.search());
+		}
+
+		final List<Search> searches = new ArrayList<Search>();
+		for (int i = 0; i < slots.get(split).options(); i++)
+			searches.add(new Search(split, i));
+
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < Math.min(threads, searches.size()); t++) {
+			FutureTask<Object> worker = new FutureTask<Object>(new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < searches.size())
+						searches.get(i).result = searches.get(i).search();
+				}
+			}, null);
+			Processor.getExecutor().execute(worker);
+			workers.add(worker);
+		}
+		for (Future<?> worker : workers)
+			worker.get();
+
+		// The first option in order with a solution wins, otherwise
+		// report the deepest conflict
+		Search deepest = searches.get(0);
+		for (Search search : searches) {
+			if (search.result != null)
+				return finish(search, search.result);
+			if (search.deepest > deepest.deepest)
+				deepest = search;
+		}
+		return finish(deepest, null);
+	}
+
+	private Resource[] finish(Search search, Resource[] result) {
+		conflict = search.conflict;
+		gaveUp = search.gaveUp;
+		steps = search.steps;
+		return result;
+	}
+
+	/**
+	 * A depth first search over the slots. A search may be restricted to one
+	 * option of a slot, it stops when a search for an earlier option found a
+	 * solution.
+	 */
+	class Search {
+		final int									fixed;
+		final int									option;
+		final Resource[]							wires		= new Resource[slots.size()];
+		final boolean[]								assigned	= new boolean[slots.size()];
+		final Map<Resource, Map<String, Resource>>	views		= new HashMap<Resource, Map<String, Resource>>();
+		final Map<Resource, List<Slot>>				incoming	= new HashMap<Resource, List<Slot>>();
+		Resource[]									result;
+		int											steps;
+		int											deepest;
+		String										conflict;
+		boolean										gaveUp;
+
+		Search(int fixed, int option) {
+			this.fixed = fixed;
+			this.option = option;
+		}
+
+		Resource[] search() {
+			int size = slots.size();
+			int[] next = new int[size + 1];
+			if (fixed == 0)
+				next[0] = option;
+			int depth = 0;
+			while (depth >= 0) {
+				if (depth == size) {
+					int b;
+					while (option < (b = best.get()) && !best.compareAndSet(b, option))
+						;
+					return wires;
+				}
+				if (++steps > MAX_STEPS) {
+					gaveUp = true;
+					return null;
+				}
+				if (fixed >= 0 && best.get() < option)
+					return null;
+
+				Slot slot = slots.get(depth);
+				if (assigned[depth])
+					unassign(slot);
+
+				int end = depth == fixed ? option + 1 : slot.options();
+				boolean advanced = false;
+				while (next[depth] < end) {
+					int i = next[depth]++;
+					Resource candidate = i < slot.candidates.length ? slot.candidates[i] : null;
+					assign(slot, candidate);
+					if (candidate == null || check(slot.owner, depth)) {
+						advanced = true;
+						break;
+					}
+					unassign(slot);
+				}
+
+				if (advanced) {
+					depth++;
+					next[depth] = depth == fixed ? option : 0;
+				} else {
+					next[depth] = depth == fixed ? option : 0;
+					depth--;
+				}
+			}
+			return null;
+		}
+
+		void assign(Slot slot, Resource provider) {
+			assigned[slot.index] = true;
+			wires[slot.index] = provider;
+			views.remove(slot.owner);
+			if (provider != null) {
+				List<Slot> list = incoming.get(provider);
+				if (list == null)
+					incoming.put(provider, list = new ArrayList<Slot>());
+				list.add(slot);
+			}
+		}
+
+		void unassign(Slot slot) {
+			Resource provider = wires[slot.index];
+			if (provider != null) {
+				List<Slot> list = incoming.get(provider);
+				list.remove(list.size() - 1);
+			}
+			assigned[slot.index] = false;
+			wires[slot.index] = null;
+			views.remove(slot.owner);
+		}
+
+		/**
+		 * Check the bundle and all the bundles that are wired to it.
+		 */
+		boolean check(Resource bundle, int depth) {
+			Set<Resource> done = new HashSet<Resource>();
+			LinkedList<Resource> todo = new LinkedList<Resource>();
+			todo.add(bundle);
+			while (!todo.isEmpty()) {
+				Resource b = todo.removeFirst();
+				if (!done.add(b))
+					continue;
+
+				if (!consistent(b, depth))
+					return false;
+
+				List<Slot> list = incoming.get(b);
+				if (list != null)
+					for (Slot slot : list)
+						todo.add(slot.owner);
+			}
+			return true;
+		}
+
+		boolean consistent(Resource bundle, int depth) {
+			Map<String, Resource> view = view(bundle);
+			Map<String, Resource> implied = new HashMap<String, Resource>();
+			for (Map.Entry<String, Resource> entry : view.entrySet()) {
+				if (entry.getValue() != bundle
+						&& !imply(bundle, entry.getKey(), entry.getValue(), view, implied, depth))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Add a package and its exporter to the packages a bundle implicitly
+		 * sees, and the packages it uses with their exporters as seen by the
+		 * exporter.
+		 */
+		boolean imply(Resource bundle, String pack, Resource exporter, Map<String, Resource> view,
+				Map<String, Resource> implied, int depth) {
+			Resource previous = implied.get(pack);
+			if (previous == exporter)
+				return true;
+
+			Resource own = view.get(pack);
+			if (previous != null || (own != null && own != exporter)) {
+				if (depth >= deepest) {
+					deepest = depth;
+					conflict = String.format(
+							"%s sees package %s from %s but a uses constraint requires %s",
+							bundle, pack, previous == null ? own : previous, exporter);
+				}
+				return false;
+			}
+			implied.put(pack, exporter);
+
+			Set<String> uses = exports.get(exporter).get(pack);
+			if (uses == null || uses.isEmpty())
+				return true;
+
+			Map<String, Resource> exporterView = view(exporter);
+			for (String used : uses) {
+				Resource provider = exporterView.get(used);
+				if (provider != null && !imply(bundle, used, provider, view, implied, depth))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Answer the exporters of the packages a bundle sees. Imports take
+		 * precedence over the own exports, which take precedence over the
+		 * packages of the required bundles.
+		 */
+		Map<String, Resource> view(Resource bundle) {
+			Map<String, Resource> view = views.get(bundle);
+			if (view != null)
+				return view;
+
+			view = new HashMap<String, Resource>();
+			List<Slot> list = owned.get(bundle);
+			for (Slot slot : list) {
+				Resource provider = wires[slot.index];
+				if (provider != null && slot.requirement.type == Resource.Type.BUNDLE)
+					for (String pack : exports.get(provider).keySet())
+						view.put(pack, provider);
+			}
+			for (String pack : exports.get(bundle).keySet())
+				view.put(pack, bundle);
+			for (Slot slot : list) {
+				Resource provider = wires[slot.index];
+				if (provider != null && slot.requirement.type == Resource.Type.PACKAGE)
+					view.put(slot.requirement.name, provider);
+			}
+			views.put(bundle, view);
+			return view;
+		}
+	}
+}
@@ -129,39 +129,34 @@ public class Signer extends Processor {
     private void doManifest(Jar jar, String[] digestNames,
             MessageDigest[] algorithms, OutputStream out) throws Exception {
 
-        for (Map.Entry<String,Resource> entry : jar.getResources().entrySet()) {
-            String name = entry.getKey();
-            if (!METAINFDIR.matcher(name).matches()) {
-                out.write("\r\n".getBytes());
-                out.write("Name: ".getBytes());
-                out.write(name.getBytes());
-                out.write("\r\n".getBytes());
-
-                digest(algorithms, entry.getValue());
-                for (int a = 0; a < algorithms.length; a++) {
-                    if (algorithms[a] != null) {
-                        byte[] digest = algorithms[a].digest();
-                        String header = digestNames[a] + "-Digest: "
-                                + new Base64(digest) + "\r\n";
-                        out.write(header.getBytes());
-                    }
-                }
-            }
+        List<String> names = new ArrayList<String>();
+        for (int a = 0; a < algorithms.length; a++) {
+            if (algorithms[a] != null)
+                names.add(digestNames[a]);
+        }
+
+        List<String> paths = new ArrayList<String>();
+        for (String path : jar.getResources().keySet()) {
+            if (!METAINFDIR.matcher(path).matches())
+                paths.add(path);
         }
-    }
 
-    private void digest(MessageDigest[] algorithms, Resource r)
-            throws Exception {
-        InputStream in = r.openInputStream();
-        byte[] data = new byte[1024];
-        int size = in.read(data);
-        while (size > 0) {
-            for (int a = 0; a < algorithms.length; a++) {
-                if (algorithms[a] != null) {
-                    algorithms[a].update(data, 0, size);
-                }
+        // The digests are calculated in one pass over each resource and
+        // cached on the jar, the checksums may have calculated them already
+        Map<String, byte[][]> digests = jar.getDigests(paths,
+                names.toArray(new String[names.size()]));
+
+        for (Map.Entry<String, byte[][]> entry : digests.entrySet()) {
+            out.write("\r\n".getBytes());
+            out.write("Name: ".getBytes());
+            out.write(entry.getKey().getBytes());
+            out.write("\r\n".getBytes());
+
+            for (int a = 0; a < names.size(); a++) {
+                String header = names.get(a) + "-Digest: "
+                        + new Base64(entry.getValue()[a]) + "\r\n";
+                out.write(header.getBytes());
             }
-            size = in.read(data);
         }
     }
 
@@ -26,6 +26,24 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 	boolean dirty;
 	String name;
 
+	/**
+	 * The repository is indexed on first use, per bsn directory the versions
+	 * are kept sorted with their files. A put updates the index, changes made
+	 * by others are picked up with {@link #refresh()}, which only lists the
+	 * directories that were modified since they were indexed.
+	 */
+	static class Entry {
+		final long						lastModified;
+		final SortedMap<Version, File>	versions	= new TreeMap<Version, File>();
+
+		Entry(long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+
+	final SortedMap<String, Entry>	index	= new TreeMap<String, Entry>();
+	boolean							indexed;
+
 	public FileRepo() {}
 	
 	public FileRepo(String name, File location, boolean canWrite) {
@@ -69,13 +87,6 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 		if (versionRange != null && versionRange.equals("project"))
 			return null;
 
-		//
-		// Check if the entry exists
-		//
-		File f = new File(root, bsn);
-		if (!f.isDirectory())
-			return null;
-
 		//
 		// The version range we are looking for can
 		// be null (for all) or a version range.
@@ -87,35 +98,99 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 			range = new VersionRange(versionRange);
 
 		//
-		// Iterator over all the versions for this BSN.
-		// Create a sorted map over the version as key
-		// and the file as URL as value. Only versions
-		// that match the desired range are included in
-		// this list.
+		// Collect the versions for this BSN that match
+		// the desired range, the versions below the range
+		// are skipped.
 		//
-		File instances[] = f.listFiles();
-		SortedMap<Version, File> versions = new TreeMap<Version, File>();
-		for (int i = 0; i < instances.length; i++) {
-			Matcher m = REPO_FILE.matcher(instances[i].getName());
-			if (m.matches() && m.group(1).equals(bsn)) {
-				String versionString = m.group(2);
-				Version version;
-				if (versionString.equals("latest"))
-					version = new Version(Integer.MAX_VALUE);
-				else
-					version = new Version(versionString);
-
-				if (range.includes(version)
-						|| versionString.equals(versionRange))
-					versions.put(version, instances[i]);
+		List<File> files = new ArrayList<File>();
+		synchronized (this) {
+			Entry entry = getIndex().get(bsn);
+			if (entry == null)
+				return null;
+
+			for (Map.Entry<Version, File> e : entry.versions.tailMap(range.getLow()).entrySet()) {
+				if (range.includes(e.getKey()))
+					files.add(e.getValue());
+				else if (range.isRange() && e.getKey().compareTo(range.getHigh()) > 0)
+					break;
 			}
 		}
 
-		File[] files = (File[]) versions.values().toArray(EMPTY_FILES);
-		if ("latest".equals(versionRange) && files.length > 0) {
-			return new File[] { files[files.length - 1] };
+		if ("latest".equals(versionRange) && files.size() > 0) {
+			return new File[] { files.get(files.size() - 1) };
+		}
+		return files.toArray(EMPTY_FILES);
+	}
+
+	/**
+	 * Answer the index, the repository is scanned the first time.
+	 */
+	synchronized SortedMap<String, Entry> getIndex() {
+		if (!indexed) {
+			indexed = true;
+			scan();
+		}
+		return index;
+	}
+
+	/**
+	 * Bring the index up to date with the repository. Only the bsn
+	 * directories that were added or modified since they were indexed are
+	 * listed.
+	 * 
+	 * @return true if the index changed
+	 */
+	synchronized boolean scan() {
+		if (root == null)
+			return false;
+
+		String list[] = root.list();
+		if (list == null) {
+			if (reporter != null)
+				reporter.error("FileRepo root directory (%s) does not exist", root);
+			list = new String[0];
+		}
+
+		boolean changed = index.keySet().retainAll(Arrays.asList(list));
+		for (String bsn : list) {
+			File dir = new File(root, bsn);
+			long lastModified = dir.lastModified();
+			Entry entry = index.get(bsn);
+			if (entry != null && entry.lastModified == lastModified)
+				continue;
+
+			File instances[] = dir.listFiles();
+			if (instances == null) {
+				if (entry != null) {
+					index.remove(bsn);
+					changed = true;
+				}
+				continue;
+			}
+
+			entry = new Entry(lastModified);
+			for (File instance : instances)
+				add(entry, bsn, instance);
+			index.put(bsn, entry);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Add a file to the versions of a bsn if its name matches.
+	 */
+	void add(Entry entry, String bsn, File file) {
+		Matcher m = REPO_FILE.matcher(file.getName());
+		if (m.matches() && m.group(1).equals(bsn)) {
+			String versionString = m.group(2);
+			Version version;
+			if (versionString.equals("latest"))
+				version = new Version(Integer.MAX_VALUE);
+			else
+				version = new Version(versionString);
+			entry.versions.put(version, file);
 		}
-		return files;
 	}
 
 	public boolean canWrite() {
@@ -164,6 +239,17 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 		if (!file.exists() || file.lastModified() < jar.lastModified()) {
 			jar.write(file);
 			reporter.progress("Updated " + file.getAbsolutePath());
+			synchronized (this) {
+				if (indexed) {
+					Entry entry = index.get(bsn);
+					if (entry == null) {
+						// Listed again on the next refresh
+						entry = new Entry(-1);
+						index.put(bsn, entry);
+					}
+					add(entry, bsn, file);
+				}
+			}
 			fireBundleAdded(jar, file);
 		} else {
 			reporter.progress("Did not update " + jar
@@ -213,15 +299,12 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 		if (root == null) {
 			if (reporter != null) reporter.error("FileRepo root directory is not set.");
 		} else {
-			String list[] = root.list();
-			if (list != null) {
-				for (String f : list) {
+			synchronized (this) {
+				for (String f : getIndex().keySet()) {
 					if (pattern == null || pattern.matches(f))
 						result.add(f);
 				}
-			} else 
-				if ( reporter != null)
-					reporter.error("FileRepo root directory (%s) does not exist", root);
+			}
 		}
 
 		return result;
@@ -229,22 +312,19 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 
 	public List<Version> versions(String bsn) throws Exception {
 		init();
-		File dir = new File(root, bsn);
-		if (dir.isDirectory()) {
-			String versions[] = dir.list();
+		synchronized (this) {
+			Entry entry = getIndex().get(bsn);
+			if (entry == null)
+				return null;
+
 			List<Version> list = new ArrayList<Version>();
-			for (String v : versions) {
-				Matcher m = REPO_FILE.matcher(v);
-				if (m.matches()) {
-					String version = m.group(2);
-					if (version.equals("latest"))
-						version = "99";
-					list.add(new Version(version));
-				}
+			for (Version version : entry.versions.keySet()) {
+				if (version.getMajor() == Integer.MAX_VALUE)
+					version = new Version(99);
+				list.add(version);
 			}
 			return list;
 		}
-		return null;
 	}
 
 	public String toString() {
@@ -257,7 +337,11 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 	}
 
 	public boolean refresh() {
-		if (dirty) {
+		boolean changed;
+		synchronized (this) {
+			changed = indexed && scan();
+		}
+		if (dirty || changed) {
 			dirty = false;
 			return true;
 		} else
@@ -0,0 +1,218 @@
+package aQute.lib.deployer.obr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import aQute.lib.hex.Hex;
+
+/**
+ * A binary copy of a parsed OBR index. The copy records the last modified
+ * time, ETag and length of the index it was parsed from, it is only used as
+ * long as these are unchanged. All the strings are kept once in a table at
+ * the start of the file, the resources refer to them by number.
+ */
+class IndexCache {
+
+	static final int MAGIC = 0x4F425249; // "OBRI"
+	static final int FORMAT = 1;
+	static final String PREFIX = "obr-index-";
+	static final String SUFFIX = ".cache";
+
+	final String location;
+	final long lastModified;
+	final String etag;
+	final long length;
+	final List<Resource> resources;
+
+	IndexCache(String location, long lastModified, String etag, long length, List<Resource> resources) {
+		this.location = location;
+		this.lastModified = lastModified;
+		this.etag = etag;
+		this.length = length;
+		this.resources = resources;
+	}
+
+	/**
+	 * @return The cache file for the index at the given location.
+	 */
+	static File getFile(File cacheDir, String location) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		byte[] hash = digest.digest(location.getBytes("UTF-8"));
+		return new File(cacheDir, PREFIX + Hex.toHexString(hash) + SUFFIX);
+	}
+
+	/**
+	 * @return Whether an index with the given last modified time, ETag and
+	 *         length is the index this cache was parsed from. An index that
+	 *         has neither a last modified time nor an ETag never matches.
+	 */
+	boolean matches(long lastModified, String etag, long length) {
+		if (lastModified <= 0 && etag == null)
+			return false;
+		if (this.length != length || this.lastModified != lastModified)
+			return false;
+		return etag == null ? this.etag == null : etag.equals(this.etag);
+	}
+
+	/**
+	 * Read a cache file.
+	 *
+	 * @return The cache, or null if the file is not a cache for the given
+	 *         location or cannot be read.
+	 */
+	static IndexCache read(File file, String location) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// Not mapped, a mapped file stays locked on Windows until the
+				// mapping is collected and could then not be replaced
+				byte[] bytes = new byte[(int) raf.length()];
+				raf.readFully(bytes);
+				return read(ByteBuffer.wrap(bytes), location);
+			} finally {
+				raf.close();
+			}
+		} catch (Exception e) {
+			// A truncated or foreign file is parsed again
+			return null;
+		}
+	}
+
+	static IndexCache read(ByteBuffer buffer, String location) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+			return null;
+
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, "UTF-8");
+		}
+
+		if (!location.equals(string(strings, buffer)))
+			return null;
+		long lastModified = buffer.getLong();
+		String etag = string(strings, buffer);
+		long length = buffer.getLong();
+
+		int count = buffer.getInt();
+		List<Resource> resources = new ArrayList<Resource>(count);
+		for (int i = 0; i < count; i++) {
+			Resource.Builder builder = new Resource.Builder()
+				.setBaseUrl(location)
+				.setId(string(strings, buffer))
+				.setPresentationName(string(strings, buffer))
+				.setSymbolicName(string(strings, buffer))
+				.setUrl(string(strings, buffer))
+				.setVersion(string(strings, buffer));
+			int capabilities = buffer.getInt();
+			for (int j = 0; j < capabilities; j++) {
+				Capability.Builder capability = new Capability.Builder().setName(string(strings, buffer));
+				int properties = buffer.getInt();
+				for (int k = 0; k < properties; k++)
+					capability.addProperty(new Property(string(strings, buffer), string(strings, buffer), string(strings, buffer)));
+				builder.addCapability(capability);
+			}
+			resources.add(builder.build());
+		}
+		return new IndexCache(location, lastModified, etag, length, resources);
+	}
+
+	static String string(String[] strings, ByteBuffer buffer) {
+		int n = buffer.getInt();
+		return n < 0 ? null : strings[n];
+	}
+
+	/**
+	 * Write the cache to a file. The file is written under a temporary name
+	 * first so that a concurrent reader never sees a partial file.
+	 */
+	void write(File file) throws IOException {
+		Map<String, Integer> table = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		List<Integer> refs = new ArrayList<Integer>();
+
+		add(table, strings, refs, location);
+		add(table, strings, refs, etag);
+		for (Resource resource : resources) {
+			add(table, strings, refs, resource.getId());
+			add(table, strings, refs, resource.getPresentationName());
+			add(table, strings, refs, resource.getSymbolicName());
+			add(table, strings, refs, resource.getUrl());
+			add(table, strings, refs, resource.getVersion());
+			for (Capability capability : resource.getCapabilities()) {
+				add(table, strings, refs, capability.getName());
+				for (Property property : capability.getProperties()) {
+					add(table, strings, refs, property.getName());
+					add(table, strings, refs, property.getType());
+					add(table, strings, refs, property.getValue());
+				}
+			}
+		}
+
+		File tmp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			int n = 0;
+			out.writeInt(refs.get(n++));
+			out.writeLong(lastModified);
+			out.writeInt(refs.get(n++));
+			out.writeLong(length);
+			out.writeInt(resources.size());
+			for (Resource resource : resources) {
+				for (int i = 0; i < 5; i++)
+					out.writeInt(refs.get(n++));
+				out.writeInt(resource.getCapabilities().size());
+				for (Capability capability : resource.getCapabilities()) {
+					out.writeInt(refs.get(n++));
+					out.writeInt(capability.getProperties().size());
+					for (int i = 0; i < capability.getProperties().size() * 3; i++)
+						out.writeInt(refs.get(n++));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException(String.format("Cannot write cache file '%s'.", file.getAbsolutePath()));
+			}
+		}
+	}
+
+	static void add(Map<String, Integer> table, List<String> strings, List<Integer> refs, String s) {
+		if (s == null) {
+			refs.add(-1);
+			return;
+		}
+		Integer n = table.get(s);
+		if (n == null) {
+			n = strings.size();
+			table.put(s, n);
+			strings.add(s);
+		}
+		refs.add(n);
+	}
+}
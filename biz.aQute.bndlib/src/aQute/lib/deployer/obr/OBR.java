@@ -5,9 +5,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -16,6 +18,9 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -28,6 +33,7 @@ import aQute.bnd.service.Plugin;
 import aQute.bnd.service.RepositoryPlugin;
 import aQute.lib.osgi.Constants;
 import aQute.lib.osgi.Jar;
+import aQute.lib.osgi.Processor;
 import aQute.libg.reporter.Reporter;
 import aQute.libg.version.Version;
 import aQute.libg.version.VersionRange;
@@ -163,19 +169,36 @@ public class OBR implements Plugin, RepositoryPlugin {
 			
 			IResourceListener[] listeners = new IResourceListener[] { bsnMapper, pkgMapper };
 			
-			if (locations != null) for (URL location : locations) {
-				try {
-					InputStream stream = location.openStream();
-					readIndex(location.toString(), stream, listeners);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ParserConfigurationException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (SAXException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+			// Parse the indexes concurrently but process them in order, so
+			// that a later location still overrides an earlier one
+			if (locations != null) {
+				List<FutureTask<List<Resource>>> tasks = new ArrayList<FutureTask<List<Resource>>>(locations.length);
+				for (final URL location : locations) {
+					FutureTask<List<Resource>> task = new FutureTask<List<Resource>>(new Callable<List<Resource>>() {
+						public List<Resource> call() throws Exception {
+							return readIndex(location);
+						}
+					});
+					if (locations.length > 1)
+						Processor.getExecutor().execute(task);
+					else
+						task.run();
+					tasks.add(task);
+				}
+				
+				for (int i = 0; i < tasks.size(); i++) {
+					try {
+						for (Resource resource : tasks.get(i).get()) {
+							for (IResourceListener listener : listeners)
+								listener.processResource(resource);
+						}
+					} catch (Exception e) {
+						Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+						if (reporter != null)
+							reporter.error("Cannot read OBR index %s: %s", locations[i], cause);
+						else
+							cause.printStackTrace();
+					}
 				}
 			}
 			
@@ -183,6 +206,63 @@ public class OBR implements Plugin, RepositoryPlugin {
 		}
 	}
 	
+	/**
+	 * Read the index at a location. When there is a cache directory the
+	 * parsed index is kept there in binary form and used again as long as the
+	 * index has the same last modified time, ETag and length.
+	 */
+	List<Resource> readIndex(URL location) throws Exception {
+		String baseUrl = location.toString();
+		File cacheFile = null;
+		IndexCache cache = null;
+		if (cacheDir != null) {
+			cacheFile = IndexCache.getFile(cacheDir, baseUrl);
+			if (cacheFile.isFile())
+				cache = IndexCache.read(cacheFile, baseUrl);
+		}
+		
+		URLConnection connection = location.openConnection();
+		if (cache != null && connection instanceof HttpURLConnection) {
+			if (cache.etag != null)
+				connection.setRequestProperty("If-None-Match", cache.etag);
+			if (cache.lastModified > 0)
+				connection.setIfModifiedSince(cache.lastModified);
+		}
+		
+		InputStream stream = connection.getInputStream();
+		long lastModified = connection.getLastModified();
+		String etag = connection.getHeaderField("ETag");
+		long length = connection.getContentLength();
+		if (cache != null) {
+			boolean notModified = connection instanceof HttpURLConnection
+					&& ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+			if (notModified || cache.matches(lastModified, etag, length)) {
+				stream.close();
+				return cache.resources;
+			}
+		}
+		
+		final List<Resource> resources = new ArrayList<Resource>();
+		IResourceListener collector = new IResourceListener() {
+			public boolean processResource(Resource resource) {
+				resources.add(resource);
+				return true;
+			}
+		};
+		readIndex(baseUrl, stream, new IResourceListener[] { collector });
+		
+		if (cacheFile != null && (lastModified > 0 || etag != null)) {
+			try {
+				ensureCacheDirExists();
+				new IndexCache(baseUrl, lastModified, etag, length, resources).write(cacheFile);
+			} catch (IOException e) {
+				if (reporter != null)
+					reporter.warning("Cannot cache OBR index %s: %s", baseUrl, e);
+			}
+		}
+		return resources;
+	}
+	
 	/**
 	 * @return Whether to continue parsing other indexes
 	 * @throws IOException 
@@ -22,6 +22,8 @@ package aQute.lib.osgi;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.jar.*;
 import java.util.jar.Attributes.Name;
 import java.util.regex.*;
@@ -45,6 +47,7 @@ public class Analyzer extends Processor {
 	// package
 	final Map<String, Set<String>>			uses					= newHashMap();							// package
 	Map<String, Clazz>						classspace;
+	ClassIndex								classIndex;
 	Map<String, Clazz>						importedClassesCache	= newMap();
 	Map<String, Map<String, String>>		exports;
 	Map<String, Map<String, String>>		imports;
@@ -57,6 +60,7 @@ public class Analyzer extends Processor {
 	String									activator;
 
 	final List<Jar>							classpath				= newList();
+	private ClasspathIndex					classpathIndex;
 
 	static Properties						bndInfo;
 
@@ -67,6 +71,8 @@ public class Analyzer extends Processor {
 	boolean									diagnostics				= false;
 	SortedSet<Clazz.JAVA>					formats					= new TreeSet<Clazz.JAVA>();
 	private boolean							inited;
+	private ClassCache						classCache;
+	private boolean							classCacheInited;
 
 	public Analyzer(Processor parent) {
 		super(parent);
@@ -155,7 +161,7 @@ public class Analyzer extends Processor {
 			Map<String, Map<String, String>> additionalExportInstructions = parseHeader(getProperty(EXPORT_CONTENTS));
 			exportInstructions.putAll(additionalExportInstructions);
 			Map<String, Map<String, String>> importInstructions = parseHeader(getImportPackages());
-			Map<String, Map<String, String>> dynamicImports = parseHeader(getProperty(DYNAMICIMPORT_PACKAGE));
+			Map<String, Map<String, String>> dynamicImports = getParsedHeader(getProperty(DYNAMICIMPORT_PACKAGE));
 
 			if (dynamicImports != null) {
 				// Remove any dynamic imports from the referred set.
@@ -411,7 +417,7 @@ public class Analyzer extends Processor {
 		merge(manifest, dot.getManifest());
 
 		// Remove all the headers mentioned in -removeheaders
-		Map<String, Map<String, String>> removes = parseHeader(getProperty(REMOVEHEADERS));
+		Map<String, Map<String, String>> removes = getParsedHeader(getProperty(REMOVEHEADERS));
 		Set<Instruction> matchers = Instruction.replaceWithInstruction(removes).keySet();
 
 		Collection<Object> toBeRemoved = Instruction.select(matchers, main.keySet());
@@ -645,7 +651,7 @@ public class Analyzer extends Processor {
 		List<Jar> list = new ArrayList<Jar>();
 		for (int i = 0; i < classpath.length; i++) {
 			if (classpath[i].exists()) {
-				Jar current = new Jar(classpath[i]);
+				Jar current = new Jar(classpath[i], true);
 				list.add(current);
 			} else {
 				error("Missing file on classpath: %s", classpath[i]);
@@ -758,7 +764,7 @@ public class Analyzer extends Processor {
 
 		if (file.exists())
 			try {
-				Jar jar = new Jar(file);
+				Jar jar = new Jar(file, true);
 				addClose(jar);
 				return jar;
 			} catch (Exception e) {
@@ -783,12 +789,9 @@ public class Analyzer extends Processor {
 			// Check if we have files on the classpath
 			// that have the right name, allows us to specify those
 			// names instead of the full path.
-			for (Iterator<Jar> cp = getClasspath().iterator(); cp.hasNext();) {
-				Jar entry = cp.next();
-				if (entry.source != null && entry.source.getName().equals(name)) {
-					return entry;
-				}
-			}
+			Jar entry = getClasspathIndex().getJar(name);
+			if (entry != null)
+				return entry;
 			// error("Can not find jar file for " + from + ": " + name);
 		}
 		return null;
@@ -997,8 +1000,7 @@ public class Analyzer extends Processor {
 		for (Iterator<Jar> c = getClasspath().iterator(); c.hasNext();) {
 			Jar current = c.next();
 			checkManifest(current);
-			for (Iterator<String> j = current.getDirectories().keySet().iterator(); j.hasNext();) {
-				String dir = j.next();
+			for (String dir : current.getDirectoryPaths()) {
 				Resource resource = current.getResource(dir + "/packageinfo");
 				if (resource != null) {
 					InputStream in = resource.openInputStream();
@@ -1451,18 +1453,35 @@ public class Analyzer extends Processor {
 			warning("There is an empty jar or directory on the classpath: " + jar.getName());
 
 		classpath.add(jar);
+		classpathIndex = null;
 	}
 
 	public void addClasspath(File cp) throws IOException {
 		if (!cp.exists())
 			warning("File on classpath that does not exist: " + cp);
-		Jar jar = new Jar(cp);
+		Jar jar = new Jar(cp, true);
 		addClose(jar);
 		classpath.add(jar);
+		classpathIndex = null;
 	}
 
 	public void clear() {
 		classpath.clear();
+		classpathIndex = null;
+	}
+
+	/**
+	 * Answer the index over the classpath. The index is created when it is
+	 * first needed and discarded when the classpath changes.
+	 * 
+	 * @return the classpath index
+	 */
+	synchronized ClasspathIndex getClasspathIndex() {
+		List<Jar> classpath = getClasspath();
+		ClasspathIndex index = classpathIndex;
+		if (index == null || index.size != classpath.size())
+			classpathIndex = index = new ClasspathIndex(classpath);
+		return index;
 	}
 
 	public Jar getTarget() {
@@ -1536,7 +1555,12 @@ public class Analyzer extends Processor {
 			Map<String, Map<String, String>> contained, Map<String, Map<String, String>> referred,
 			Map<String, Set<String>> uses, Set<String> hide) throws Exception {
 
-		next: for (String path : jar.getResources().keySet()) {
+		// The class files are collected first so they can be parsed in
+		// parallel. They are merged afterwards in the order of the jar so
+		// the result does not depend on the number of threads.
+		List<Clazz> clazzes = newList();
+
+		for (String path : jar.getResources().keySet()) {
 			if (path.startsWith(prefix) && !hide.contains(path)) {
 				hide.add(path);
 				String relativePath = path.substring(prefix.length());
@@ -1574,64 +1598,147 @@ public class Analyzer extends Processor {
 				}
 
 				// Check class resources, we need to analyze them
-				if (path.endsWith(".class")) {
-					Resource resource = jar.getResource(path);
-					Clazz clazz;
+				if (path.endsWith(".class"))
+					clazzes.add(new Clazz(relativePath, jar.getResource(path)));
+			}
+		}
 
-					try {
-						InputStream in = resource.openInputStream();
-						clazz = new Clazz(relativePath, resource);
-						try {
-							// Check if we have a package-info
-							if (relativePath.endsWith("/package-info.class")) {
-								// package-info can contain an Export annotation
-								Map<String, String> info = contained.get(pack);
-								parsePackageInfoClass(clazz, info);
-							} else {
-								// Otherwise we just parse it simply
-								clazz.parseClassFile();
-							}
-						} finally {
-							in.close();
-						}
-					} catch (Throwable e) {
-						error("Invalid class file: " + relativePath, e);
-						e.printStackTrace();
-						continue next;
-					}
+		getClassCache();
+		Throwable[] failures = new Throwable[clazzes.size()];
+		int threads = getParallel();
+		boolean parallel = threads > 1 && clazzes.size() > 1;
+		if (parallel)
+			parseClasses(clazzes, failures, threads);
 
-					String calculatedPath = clazz.getClassName() + ".class";
-					if (!calculatedPath.equals(relativePath)) {
-						if (!isNoBundle()) {
-							error("Class in different directory than declared. Path from class name is "
-									+ calculatedPath
-									+ " but the path in the jar is "
-									+ relativePath + " from " + jar);
-						}
-					}
+		next: for (int i = 0; i < clazzes.size(); i++) {
+			Clazz clazz = clazzes.get(i);
+			String relativePath = clazz.getPath();
+			String pack = getPackage(relativePath);
+
+			try {
+				// Check if we have a package-info
+				if (relativePath.endsWith("/package-info.class")) {
+					// package-info can contain an Export annotation
+					Map<String, String> info = contained.get(pack);
+					parsePackageInfoClass(clazz, info);
+				} else if (!parallel)
+					// Otherwise we just parse it simply
+					parseClass(clazz);
+				else if (failures[i] != null)
+					throw failures[i];
+			} catch (Throwable e) {
+				error("Invalid class file: " + relativePath, e);
+				e.printStackTrace();
+				continue next;
+			}
 
-					classSpace.put(relativePath, clazz);
+			String calculatedPath = clazz.getClassName() + ".class";
+			if (!calculatedPath.equals(relativePath)) {
+				if (!isNoBundle()) {
+					error("Class in different directory than declared. Path from class name is "
+							+ calculatedPath + " but the path in the jar is " + relativePath
+							+ " from " + jar);
+				}
+			}
+
+			classSpace.put(relativePath, clazz);
+
+			// Look at the referred packages
+			// and copy them to our baseline
+			for (String p : clazz.getReferred()) {
+				Map<String, String> attrs = referred.get(p);
+				if (attrs == null) {
+					attrs = newMap();
+					referred.put(p, attrs);
+				}
+			}
+
+			// Add all the used packages
+			// to this package
+			Set<String> t = uses.get(pack);
+			if (t == null)
+				uses.put(pack, t = new LinkedHashSet<String>());
+			t.addAll(clazz.getReferred());
+			t.remove(pack);
+		}
+	}
 
-					// Look at the referred packages
-					// and copy them to our baseline
-					for (String p : clazz.getReferred()) {
-						Map<String, String> attrs = referred.get(p);
-						if (attrs == null) {
-							attrs = newMap();
-							referred.put(p, attrs);
+	/**
+	 * Parse the given classes on the executor with the given number of
+	 * threads. The package-info classes are skipped, they need the package
+	 * info and are handled during the merge. A failure is not reported here
+	 * but stored at the index of the class so the caller can report it in
+	 * order.
+	 * 
+	 * @param clazzes
+	 *            the classes to parse
+	 * @param failures
+	 *            receives the exception per class, if any
+	 * @param threads
+	 *            the number of threads to use
+	 */
+	private void parseClasses(final List<Clazz> clazzes, final Throwable[] failures, int threads)
+			throws Exception {
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<?>> workers = newList();
+		for (int t = 0; t < threads; t++) {
+			workers.add(executor.submit(new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < clazzes.size()) {
+						Clazz clazz = clazzes.get(i);
+						if (clazz.getPath().endsWith("/package-info.class"))
+							continue;
+						try {
+							parseClass(clazz);
+						} catch (Throwable e) {
+							failures[i] = e;
 						}
 					}
+				}
+			}));
+		}
+		for (Future<?> worker : workers)
+			worker.get();
+	}
 
-					// Add all the used packages
-					// to this package
-					Set<String> t = uses.get(pack);
-					if (t == null)
-						uses.put(pack, t = new LinkedHashSet<String>());
-					t.addAll(clazz.getReferred());
-					t.remove(pack);
+	/**
+	 * Parse a class file. If a class cache is set then the result is taken
+	 * from the cache when the same bytes were parsed before, otherwise the
+	 * result is added to the cache.
+	 * 
+	 * @param clazz
+	 *            the class to parse
+	 */
+	void parseClass(Clazz clazz) throws Exception {
+		ClassCache cache = getClassCache();
+		if (cache == null)
+			clazz.scanClassFile();
+		else
+			cache.parse(clazz);
+	}
+
+	/**
+	 * Answer the class cache as set with the -classcache instruction. The
+	 * instruction names a directory, the cache is shared with the other
+	 * analyzers that use the same directory.
+	 * 
+	 * @return the class cache or null if no cache is set or it cannot be
+	 *         opened
+	 */
+	public ClassCache getClassCache() {
+		if (!classCacheInited) {
+			classCacheInited = true;
+			String dir = getProperty(CLASSCACHE);
+			if (dir != null && dir.trim().length() > 0) {
+				try {
+					classCache = ClassCache.getCache(getFile(dir.trim()));
+				} catch (Exception e) {
+					warning("Cannot open class cache %s, continuing without it: %s", dir, e);
 				}
 			}
 		}
+		return classCache;
 	}
 
 	static Pattern	OBJECT_REFERENCE	= Pattern.compile("L([^/]+/)*([^;]+);");
@@ -1926,8 +2033,13 @@ public class Analyzer extends Processor {
 	}
 
 	public Collection<Clazz> getClasses(String... args) throws Exception {
+		ClassIndex index = getClassIndex();
 
-		Set<Clazz> matched = new HashSet<Clazz>(classspace.values());
+		// The queries the index can answer narrow the set first, the
+		// remaining queries are asked to each class that is left
+		Set<Clazz> matched = null;
+		List<QUERY> types = newList();
+		List<Instruction> instrs = newList();
 		for (int i = 1; i < args.length; i++) {
 			if (args.length < i + 1)
 				throw new IllegalArgumentException(
@@ -1978,9 +2090,24 @@ public class Analyzer extends Processor {
 				}
 				instr = Instruction.getPattern(sb.toString());
 			}
+
+			Set<Clazz> selected = index.select(type, instr);
+			if (selected == null) {
+				types.add(type);
+				instrs.add(instr);
+			} else if (matched == null)
+				matched = selected;
+			else
+				matched.retainAll(selected);
+		}
+
+		if (matched == null)
+			matched = new HashSet<Clazz>(classspace.values());
+
+		for (int i = 0; i < types.size(); i++) {
 			for (Iterator<Clazz> c = matched.iterator(); c.hasNext();) {
 				Clazz clazz = c.next();
-				if (!clazz.is(type, instr, this)) {
+				if (!clazz.is(types.get(i), instrs.get(i), this)) {
 					c.remove();
 				}
 			}
@@ -1988,6 +2115,16 @@ public class Analyzer extends Processor {
 		return matched;
 	}
 
+	/**
+	 * Answer the index of the current class space, the index is made again
+	 * when the class space was analyzed again.
+	 */
+	ClassIndex getClassIndex() {
+		if (classIndex == null || classIndex.classspace != classspace)
+			classIndex = new ClassIndex(this, classspace);
+		return classIndex;
+	}
+
 	/**
 	 * Get the exporter of a package ...
 	 */
@@ -2000,11 +2137,9 @@ public class Analyzer extends Processor {
 		StringBuilder sb = new StringBuilder();
 		String del = "";
 		String pack = args[1].replace('.', '/');
-		for (Jar jar : classpath) {
-			if (jar.getDirectories().containsKey(pack)) {
-				sb.append(del);
-				sb.append(jar.getName());
-			}
+		for (Jar jar : getClasspathIndex().getJars(pack)) {
+			sb.append(del);
+			sb.append(jar.getName());
 		}
 		return sb.toString();
 	}
@@ -2021,12 +2156,7 @@ public class Analyzer extends Processor {
 	 * @return A resource or <code>null</code>
 	 */
 	public Resource findResource(String path) {
-		for (Jar entry : getClasspath()) {
-			Resource r = entry.getResource(path);
-			if (r != null)
-				return r;
-		}
-		return null;
+		return getClasspathIndex().findResource(path);
 	}
 
 	/**
@@ -2047,7 +2177,7 @@ public class Analyzer extends Processor {
 		Resource r = findResource(path);
 		if (r != null) {
 			c = new Clazz(path, r);
-			c.parseClassFile();
+			parseClass(c);
 			importedClassesCache.put(path, c);
 		}
 		return c;
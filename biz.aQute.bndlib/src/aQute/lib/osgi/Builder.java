@@ -2,6 +2,8 @@ package aQute.lib.osgi;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.jar.*;
 import java.util.regex.*;
 import java.util.zip.*;
@@ -107,6 +109,8 @@ public class Builder extends Analyzer {
 
 		dot.updateModified(lastModified(), "Last Modified Processor");
 		dot.setName(getBsn());
+		dot.setCompression(getCompression());
+		dot.setParallel(getParallel());
 
 		sign(dot);
 
@@ -114,6 +118,36 @@ public class Builder extends Analyzer {
 		return dot;
 	}
 
+	/**
+	 * Answer the compression level for the JAR. The -compression instruction
+	 * is either STORE, DEFLATE (the default), or a level from 0 to 9.
+	 *
+	 * @return the level or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public int getCompression() {
+		String value = getProperty(COMPRESSION);
+		if (value == null)
+			return Deflater.DEFAULT_COMPRESSION;
+
+		value = value.trim();
+		if (value.equalsIgnoreCase("store"))
+			return 0;
+
+		if (value.length() == 0 || value.equalsIgnoreCase("deflate"))
+			return Deflater.DEFAULT_COMPRESSION;
+
+		try {
+			int level = Integer.parseInt(value);
+			if (level >= 0 && level <= 9)
+				return level;
+		} catch (NumberFormatException e) {
+			// fall through to the warning
+		}
+		warning("Invalid value for %s, must be STORE, DEFLATE, or a level from 0 to 9: %s",
+				COMPRESSION, value);
+		return Deflater.DEFAULT_COMPRESSION;
+	}
+
 	/**
 	 * Allow any local initialization by subclasses before we build.
 	 */
@@ -409,7 +443,7 @@ public class Builder extends Analyzer {
 			firstUse = false;
 			String sp = getProperty(SOURCEPATH);
 			if (sp != null) {
-				Map<String, Map<String, String>> map = parseHeader(sp);
+				Map<String, Map<String, String>> map = getParsedHeader(sp);
 				for (Iterator<String> i = map.keySet().iterator(); i.hasNext();) {
 					String file = i.next();
 					if (!isDuplicate(file)) {
@@ -448,7 +482,7 @@ public class Builder extends Analyzer {
 				.replaceWithInstruction(getHeader(EXPORT_PACKAGE));
 
 		if (isTrue(getProperty(Constants.UNDERTEST))) {
-			privateMap.putAll(Instruction.replaceWithInstruction(parseHeader(getProperty(
+			privateMap.putAll(Instruction.replaceWithInstruction(getParsedHeader(getProperty(
 					Constants.TESTPACKAGES, "test;presence:=optional"))));
 		}
 		if (!privateMap.isEmpty())
@@ -477,13 +511,15 @@ public class Builder extends Analyzer {
 	 */
 	private void doExpand(Jar jar, String name, Map<Instruction, Map<String, String>> instructions,
 			boolean mandatory) {
-		Set<Instruction> superfluous = removeMarkedDuplicates(instructions.keySet());
+		InstructionSet matchers = new InstructionSet(instructions.keySet());
 
 		for (Iterator<Jar> c = getClasspath().iterator(); c.hasNext();) {
 			Jar now = c.next();
-			doExpand(jar, instructions, now, superfluous);
+			doExpand(jar, instructions, matchers, now);
 		}
 
+		Set<Instruction> superfluous = removeMarkedDuplicates(matchers.getUnused());
+
 		if (mandatory && superfluous.size() > 0) {
 			StringBuilder sb = new StringBuilder();
 			String del = "Instructions in " + name + " that are never used: ";
@@ -508,28 +544,25 @@ public class Builder extends Analyzer {
 	 * directory is a desired package.
 	 * 
 	 * @param included
+	 * @param matchers
+	 *            The compiled instructions, in the same order as included
 	 * @param classpathEntry
 	 */
 	private void doExpand(Jar jar, Map<Instruction, Map<String, String>> included,
-			Jar classpathEntry, Set<Instruction> superfluous) {
-
-		loop: for (Map.Entry<String, Map<String, Resource>> directory : classpathEntry
-				.getDirectories().entrySet()) {
-			String path = directory.getKey();
+			InstructionSet matchers, Jar classpathEntry) {
 
+		int applicable = applicable(included, classpathEntry.getName());
+		loop: for (String path : classpathEntry.getDirectoryPaths()) {
 			if (doNotCopy(getName(path)))
 				continue;
 
-			if (directory.getValue() == null)
-				continue;
-
 			String pack = path.replace('/', '.');
-			Instruction instr = matches(included, pack, superfluous, classpathEntry.getName());
+			Instruction instr = matchers.matches(pack, applicable);
 			if (instr != null) {
 				// System.out.println("Pattern match: " + pack + " " +
 				// instr.getPattern() + " " + instr.isNegated());
 				if (!instr.isNegated()) {
-					Map<String, Resource> contents = directory.getValue();
+					Map<String, Resource> contents = classpathEntry.getDirectoryContents(path);
 
 					// What to do with split packages? Well if this
 					// directory already exists, we will check the strategy
@@ -570,8 +603,7 @@ public class Builder extends Analyzer {
 
 					if (hasSources()) {
 						String srcPath = "OSGI-OPT/src/" + path;
-						Map<String, Resource> srcContents = classpathEntry.getDirectories().get(
-								srcPath);
+						Map<String, Resource> srcContents = classpathEntry.getDirectoryContents(srcPath);
 						if (srcContents != null) {
 							jar.addDirectory(srcContents, overwriteResource);
 						}
@@ -596,7 +628,7 @@ public class Builder extends Analyzer {
 		List<Jar> culprits = new ArrayList<Jar>();
 		for (Iterator<Jar> i = classpath.iterator(); i.hasNext();) {
 			Jar culprit = (Jar) i.next();
-			if (culprit.getDirectories().containsKey(pack)) {
+			if (culprit.hasDirectory(pack)) {
 				culprits.add(culprit);
 			}
 		}
@@ -628,51 +660,37 @@ public class Builder extends Analyzer {
 	}
 
 	/**
-	 * Matches the instructions against a package.
+	 * Answer the number of instructions, from the start, that can match the
+	 * packages of a source. It is possible to filter on the source of the
+	 * package with the from: directive. This is an instruction that must
+	 * match the name of the source class path entry. The first instruction
+	 * with a from: directive that does not match ends the matching for this
+	 * source.
 	 * 
 	 * @param instructions
 	 *            The list of instructions
-	 * @param pack
-	 *            The name of the package
-	 * @param superfluousPatterns
-	 *            The total list of patterns, matched patterns are removed
 	 * @param source
-	 *            The name of the source container, can be filtered upon with
-	 *            the from: directive.
+	 *            The name of the source container
 	 * @return
 	 */
-	private Instruction matches(Map<Instruction, Map<String, String>> instructions, String pack,
-			Set<Instruction> superfluousPatterns, String source) {
-		for (Map.Entry<Instruction, Map<String, String>> entry : instructions.entrySet()) {
-			Instruction pattern = entry.getKey();
-
-			// It is possible to filter on the source of the
-			// package with the from: directive. This is an
-			// instruction that must match the name of the
-			// source class path entry.
-
-			String from = entry.getValue().get(FROM_DIRECTIVE);
+	private int applicable(Map<Instruction, Map<String, String>> instructions, String source) {
+		int n = 0;
+		for (Map<String, String> directives : instructions.values()) {
+			String from = directives.get(FROM_DIRECTIVE);
 			if (from != null) {
 				Instruction f = Instruction.getPattern(from);
 				if (!f.matches(source) || f.isNegated())
-					return null;
-			}
-
-			// Now do the normal
-			// matching
-			if (pattern.matches(pack)) {
-				if (superfluousPatterns != null)
-					superfluousPatterns.remove(pattern);
-				return pattern;
+					return n;
 			}
+			n++;
 		}
-		return null;
+		return n;
 	}
 
 	private Map<String, Map<String, String>> getHeader(String string) {
 		if (string == null)
 			return Collections.emptyMap();
-		return parseHeader(getProperty(string));
+		return getParsedHeader(getProperty(string));
 	}
 
 	/**
@@ -683,16 +701,48 @@ public class Builder extends Analyzer {
 	 * @throws FileNotFoundException
 	 */
 	private void doIncludeResources(Jar jar) throws Exception {
+		if (getProperty("Bundle-Includes") != null)
+			warning("Please use -includeresource instead of Bundle-Includes");
+
+		doIncludeResource(jar, getIncludeResource());
+
+	}
+
+	private String getIncludeResource() {
 		String includes = getProperty("Bundle-Includes");
 		if (includes == null) {
 			includes = getProperty(INCLUDERESOURCE);
 			if (includes == null || includes.length() == 0)
 				includes = getProperty("Include-Resource");
-		} else
-			warning("Please use -includeresource instead of Bundle-Includes");
-
-		doIncludeResource(jar, includes);
+		}
+		return includes;
+	}
 
+	/**
+	 * Answer the sources of the include resource instruction and of the WAB
+	 * instruction, as they are given. A source that starts with '@' is a JAR
+	 * that is extracted, it is a file, a URL, or the name of a JAR on the
+	 * class path. The other sources are files or directories. Literals have no
+	 * source.
+	 * 
+	 * @return the sources
+	 */
+	public List<String> getIncludeResourceSources() {
+		List<String> sources = new ArrayList<String>();
+		for (String includes : new String[] { getIncludeResource(), getProperty(WAB) }) {
+			for (Map.Entry<String, Map<String, String>> entry : getParsedHeader(includes)
+					.entrySet()) {
+				String name = entry.getKey();
+				if (name.startsWith("{") && name.endsWith("}"))
+					name = name.substring(1, name.length() - 1).trim();
+
+				String parts[] = name.split("\\s*=\\s*");
+				String source = parts.length == 2 ? parts[1] : parts[0];
+				if (source.startsWith("@") || !entry.getValue().containsKey("literal"))
+					sources.add(source);
+			}
+		}
+		return sources;
 	}
 
 	private void doIncludeResource(Jar jar, String includes) throws Exception {
@@ -961,9 +1011,33 @@ public class Builder extends Analyzer {
 
 		builders = getSubBuilders();
 
-		for (Builder builder : builders) {
+		// With -parallel the sub builders are built concurrently. They share
+		// our classpath JARs, these are only read. The results and their
+		// errors and warnings are merged in the order of the sub builders.
+		int threads = Math.min(getParallel(), builders.size());
+		Jar[] jars = null;
+		Throwable[] failures = null;
+		if (threads > 1) {
+			jars = new Jar[builders.size()];
+			failures = new Throwable[builders.size()];
+			getPlugins();
+			getReplacer();
+			build(builders, jars, failures, threads);
+		}
+
+		for (int i = 0; i < builders.size(); i++) {
+			Builder builder = builders.get(i);
 			try {
-				Jar jar = builder.build();
+				Jar jar;
+				if (jars == null)
+					jar = builder.build();
+				else {
+					if (failures[i] instanceof Error)
+						throw (Error) failures[i];
+					if (failures[i] != null)
+						throw (Exception) failures[i];
+					jar = jars[i];
+				}
 				jar.setName(builder.getBsn());
 				result.add(jar);
 			} catch (Exception e) {
@@ -995,13 +1069,14 @@ public class Builder extends Analyzer {
 		if (isTrue(getProperty(NOBUNDLES)))
 			return builders;
 
-		Map<String, Map<String, String>> subsMap = parseHeader(sub);
-		for (Iterator<String> i = subsMap.keySet().iterator(); i.hasNext();) {
-			File file = getFile(i.next());
-			if (file.isFile()) {
+		// Files are added as they are, the others are patterns
+		Map<String, Map<String, String>> subsMap = newMap();
+		for (Map.Entry<String, Map<String, String>> entry : getParsedHeader(sub).entrySet()) {
+			File file = getFile(entry.getKey());
+			if (file.isFile())
 				builders.add(getSubBuilder(file));
-				i.remove();
-			}
+			else
+				subsMap.put(entry.getKey(), entry.getValue());
 		}
 
 		Set<Instruction> subs = Instruction.replaceWithInstruction(subsMap).keySet();
@@ -1038,6 +1113,48 @@ public class Builder extends Analyzer {
 		return builders;
 	}
 
+	/**
+	 * Build the sub builders on the executor with the given number of
+	 * threads. Each sub builder is the error handler for its own thread so
+	 * that reports do not end up in a shared processor. A failure is not
+	 * reported here but stored at the index of the builder so the caller can
+	 * report it in order.
+	 * 
+	 * @param builders
+	 *            the sub builders
+	 * @param jars
+	 *            receives the jar per builder
+	 * @param failures
+	 *            receives the exception per builder, if any
+	 * @param threads
+	 *            the number of threads to use
+	 */
+	private void build(final List<Builder> builders, final Jar[] jars, final Throwable[] failures,
+			int threads) throws Exception {
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			workers.add(executor.submit(new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < builders.size()) {
+						Builder builder = builders.get(i);
+						Processor previous = builder.beginHandleErrors(builder.getBsn());
+						try {
+							jars[i] = builder.build();
+						} catch (Throwable e) {
+							failures[i] = e;
+						} finally {
+							builder.endHandleErrors(previous);
+						}
+					}
+				}
+			}));
+		}
+		for (Future<?> worker : workers)
+			worker.get();
+	}
+
 	public Builder getSubBuilder(File file) throws Exception {
 		Builder builder = getSubBuilder();
 		if (builder != null) {
@@ -1128,12 +1245,13 @@ public class Builder extends Analyzer {
 		}
 		Map<Instruction, Map<String, String>> instructions = Instruction
 				.replaceWithInstruction(clauses);
+		InstructionSet matchers = new InstructionSet(instructions.keySet());
 
 		for (File r : resources) {
 			String cpEntry = getClasspathEntrySuffix(r);
 			if (cpEntry != null) {
 				String pack = Clazz.getPackage(cpEntry);
-				Instruction i = matches(instructions, pack, null, r.getName());
+				Instruction i = matchers.matches(pack, applicable(instructions, r.getName()));
 				if (i != null)
 					return !i.isNegated();
 			}
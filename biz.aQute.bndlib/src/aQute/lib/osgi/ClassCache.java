@@ -0,0 +1,240 @@
+package aQute.lib.osgi;
+
+import java.io.*;
+import java.nio.*;
+import java.security.*;
+import java.util.*;
+
+import aQute.lib.index.*;
+import aQute.lib.io.*;
+
+/**
+ * A persistent cache of the information bnd needs from a class file. The key
+ * is the SHA-1 of the class bytes so the cache never needs to be invalidated,
+ * the same bytes always give the same result. The cache is a directory with an
+ * {@link Index} that maps the SHA-1 to an offset in a data file. The data file
+ * is append only, a record is a length followed by the summary of the class.
+ *
+ * The summary contains the class name, super class, interfaces, referred
+ * packages, annotations, access flags and format. This is sufficient for the
+ * analysis and the class queries. The cache is shared by all analyzers in the
+ * VM that use the same directory.
+ */
+public class ClassCache implements Closeable {
+	final static String						INDEXFILE	= "classes.idx";
+	final static String						DATAFILE	= "classes.dat";
+	final static String						ALGORITHM	= "SHA-1";
+	final static int						KEYLENGTH	= 20;
+	final static int						VERSION		= 1;
+
+	final static int						ABSTRACT	= 1;
+	final static int						PUBLIC		= 2;
+	final static int						ENUM		= 4;
+	final static int						RUNTIME		= 8;
+	final static int						CLASS		= 16;
+
+	static final Map<File, ClassCache>		caches		= new HashMap<File, ClassCache>();
+
+	final File								dir;
+	final Index								index;
+	final RandomAccessFile					data;
+	int										hits;
+	int										misses;
+
+	/**
+	 * Answer the cache for a directory. Caches are shared so that all the
+	 * analyzers in the VM use the same open files.
+	 *
+	 * @param dir
+	 *            the directory of the cache, is created when it does not
+	 *            exist
+	 * @return the cache
+	 */
+	public static ClassCache getCache(File dir) throws IOException {
+		dir = dir.getAbsoluteFile();
+		synchronized (caches) {
+			ClassCache cache = caches.get(dir);
+			if (cache == null) {
+				cache = new ClassCache(dir);
+				caches.put(dir, cache);
+			}
+			return cache;
+		}
+	}
+
+	ClassCache(File dir) throws IOException {
+		this.dir = dir;
+		dir.mkdirs();
+		if (!dir.isDirectory())
+			throw new IllegalArgumentException("Cannot create class cache directory " + dir);
+
+		index = new Index(new File(dir, INDEXFILE), KEYLENGTH);
+		data = new RandomAccessFile(new File(dir, DATAFILE), "rw");
+		if (data.length() == 0) {
+			data.writeInt(VERSION);
+		} else if (data.readInt() != VERSION) {
+			data.close();
+			throw new IllegalArgumentException("Class cache " + dir + " has an unknown version");
+		}
+	}
+
+	/**
+	 * Parse the class, or fill it from the cache when these bytes were seen
+	 * before. After a miss the result of the parse is added to the cache.
+	 *
+	 * @param clazz
+	 *            the clazz to fill
+	 */
+	public void parse(Clazz clazz) throws Exception {
+		InputStream in = clazz.resource.openInputStream();
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		IO.copy(in, bout);
+		byte[] bytes = bout.toByteArray();
+		byte[] key = MessageDigest.getInstance(ALGORITHM).digest(bytes);
+
+		if (get(key, clazz))
+			return;
+
+		clazz.scanClassFile(ByteBuffer.wrap(bytes));
+		put(key, clazz);
+	}
+
+	synchronized boolean get(byte[] key, Clazz clazz) throws Exception {
+		long offset = index.search(key);
+		if (offset <= 0) {
+			misses++;
+			return false;
+		}
+
+		data.seek(offset);
+		byte[] record = new byte[data.readInt()];
+		data.readFully(record);
+		read(new DataInputStream(new ByteArrayInputStream(record)), clazz);
+		hits++;
+		return true;
+	}
+
+	synchronized void put(byte[] key, Clazz clazz) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		write(new DataOutputStream(bout), clazz);
+		byte[] record = bout.toByteArray();
+
+		long offset = data.length();
+		data.seek(offset);
+		data.writeInt(record.length);
+		data.write(record);
+		index.insert(key, offset);
+	}
+
+	static void write(DataOutputStream out, Clazz clazz) throws IOException {
+		int flags = 0;
+		if (clazz.isAbstract)
+			flags |= ABSTRACT;
+		if (clazz.isPublic)
+			flags |= PUBLIC;
+		if (clazz.isEnum)
+			flags |= ENUM;
+		if (clazz.hasRuntimeAnnotations)
+			flags |= RUNTIME;
+		if (clazz.hasClassAnnotations)
+			flags |= CLASS;
+
+		out.writeInt(flags);
+		out.writeShort(clazz.major);
+		out.writeShort(clazz.minor);
+		out.writeUTF(clazz.getClassName());
+		writeString(out, clazz.zuper);
+		writeString(out, clazz.sourceFile);
+		writeStrings(out, clazz.interfaces == null ? null : Arrays.asList(clazz.interfaces));
+		writeStrings(out, clazz.imports);
+		writeStrings(out, clazz.annotations);
+		out.flush();
+	}
+
+	static void read(DataInputStream in, Clazz clazz) throws IOException {
+		int flags = in.readInt();
+		clazz.isAbstract = (flags & ABSTRACT) != 0;
+		clazz.isPublic = (flags & PUBLIC) != 0;
+		clazz.isEnum = (flags & ENUM) != 0;
+		clazz.hasRuntimeAnnotations = (flags & RUNTIME) != 0;
+		clazz.hasClassAnnotations = (flags & CLASS) != 0;
+		clazz.major = in.readUnsignedShort();
+		clazz.minor = in.readUnsignedShort();
+		clazz.className = in.readUTF();
+		clazz.zuper = readString(in);
+		clazz.sourceFile = readString(in);
+
+		List<String> interfaces = readStrings(in);
+		if (interfaces != null)
+			clazz.interfaces = interfaces.toArray(new String[interfaces.size()]);
+
+		List<String> imports = readStrings(in);
+		clazz.imports.addAll(imports);
+
+		List<String> annotations = readStrings(in);
+		if (annotations != null)
+			clazz.annotations = new HashSet<String>(annotations);
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		if (in.readBoolean())
+			return in.readUTF();
+		return null;
+	}
+
+	static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+		if (strings == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(strings.size());
+		for (String s : strings)
+			out.writeUTF(s);
+	}
+
+	static List<String> readStrings(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+
+		List<String> list = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++)
+			list.add(in.readUTF());
+		return list;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public void close() throws IOException {
+		synchronized (caches) {
+			caches.remove(dir);
+		}
+		synchronized (this) {
+			try {
+				data.close();
+			} finally {
+				index.close();
+			}
+		}
+	}
+
+	public String toString() {
+		return "ClassCache[" + dir + "]";
+	}
+}
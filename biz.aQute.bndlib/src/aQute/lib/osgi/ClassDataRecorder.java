@@ -0,0 +1,166 @@
+package aQute.lib.osgi;
+
+import java.util.*;
+
+import aQute.lib.osgi.Clazz.*;
+
+/**
+ * Records the events of a parse of a class file so that they can be replayed
+ * to any number of collectors without parsing the class file again. The
+ * events are kept as a code followed by its arguments.
+ */
+class ClassDataRecorder extends ClassDataCollector {
+	final static int	CLASS_START			= 1;
+	final static int	EXTENDS				= 2;
+	final static int	IMPLEMENTS			= 3;
+	final static int	ADD_REFERENCE		= 4;
+	final static int	ANNOTATION			= 5;
+	final static int	PARAMETER			= 6;
+	final static int	METHOD				= 7;
+	final static int	FIELD				= 8;
+	final static int	METHOD_REFERENCE	= 9;
+	final static int	FIELD_REFERENCE		= 10;
+	final static int	CLASS_END			= 11;
+	final static int	ENCLOSING_METHOD	= 12;
+	final static int	INNER_CLASS			= 13;
+	final static int	SIGNATURE			= 14;
+	final static int	CONSTANT			= 15;
+
+	final List<Object>	events				= new ArrayList<Object>();
+	Set<String>			xref;
+
+	private void record(int code, Object... args) {
+		events.add(code);
+		for (Object arg : args)
+			events.add(arg);
+	}
+
+	/**
+	 * Replay the events to a collector. Like a parse, the events stop after
+	 * the start of the class when the collector does not want the class but
+	 * the end of the class is always reported.
+	 *
+	 * @return false if the collector did not want the class
+	 */
+	boolean replay(ClassDataCollector cd) {
+		int i = 0;
+		while (i < events.size()) {
+			int code = (Integer) events.get(i++);
+			switch (code) {
+			case CLASS_START:
+				if (!cd.classStart((Integer) events.get(i++), (String) events.get(i++))) {
+					cd.classEnd();
+					return false;
+				}
+				break;
+			case EXTENDS:
+				cd.extendsClass((String) events.get(i++));
+				break;
+			case IMPLEMENTS:
+				cd.implementsInterfaces((String[]) events.get(i++));
+				break;
+			case ADD_REFERENCE:
+				cd.addReference((String) events.get(i++));
+				break;
+			case ANNOTATION:
+				cd.annotation((Annotation) events.get(i++));
+				break;
+			case PARAMETER:
+				cd.parameter((Integer) events.get(i++));
+				break;
+			case METHOD:
+				cd.method((MethodDef) events.get(i++));
+				break;
+			case FIELD:
+				cd.field((FieldDef) events.get(i++));
+				break;
+			case METHOD_REFERENCE:
+				cd.reference((MethodDef) events.get(i++));
+				break;
+			case FIELD_REFERENCE:
+				cd.reference((FieldDef) events.get(i++));
+				break;
+			case CLASS_END:
+				cd.classEnd();
+				break;
+			case ENCLOSING_METHOD:
+				cd.enclosingMethod((String) events.get(i++), (String) events.get(i++),
+						(String) events.get(i++));
+				break;
+			case INNER_CLASS:
+				cd.innerClass((String) events.get(i++), (String) events.get(i++),
+						(String) events.get(i++), (Integer) events.get(i++));
+				break;
+			case SIGNATURE:
+				cd.signature((String) events.get(i++));
+				break;
+			case CONSTANT:
+				cd.constant(events.get(i++));
+				break;
+			}
+		}
+		return true;
+	}
+
+	@Override public boolean classStart(int access, String name) {
+		record(CLASS_START, access, name);
+		return true;
+	}
+
+	@Override public void extendsClass(String name) {
+		record(EXTENDS, name);
+	}
+
+	@Override public void implementsInterfaces(String[] names) {
+		record(IMPLEMENTS, (Object) names);
+	}
+
+	@Override public void addReference(String token) {
+		record(ADD_REFERENCE, token);
+	}
+
+	@Override public void annotation(Annotation annotation) {
+		record(ANNOTATION, annotation);
+	}
+
+	@Override public void parameter(int p) {
+		record(PARAMETER, p);
+	}
+
+	@Override public void method(MethodDef defined) {
+		record(METHOD, defined);
+	}
+
+	@Override public void field(FieldDef defined) {
+		record(FIELD, defined);
+	}
+
+	@Override public void reference(MethodDef referenced) {
+		record(METHOD_REFERENCE, referenced);
+	}
+
+	@Override public void reference(FieldDef referenced) {
+		record(FIELD_REFERENCE, referenced);
+	}
+
+	@Override public void classEnd() {
+		record(CLASS_END);
+	}
+
+	@Override public void enclosingMethod(String cName, String mName, String mDescriptor) {
+		record(ENCLOSING_METHOD, cName, mName, mDescriptor);
+	}
+
+	@Override public void innerClass(String innerClass, String outerClass, String innerName,
+			int innerClassAccessFlags) {
+		record(INNER_CLASS, innerClass, outerClass, innerName, innerClassAccessFlags);
+	}
+
+	@Override public void signature(String signature) {
+		record(SIGNATURE, signature);
+	}
+
+	@Override public void constant(Object object) {
+		record(CONSTANT, object);
+	}
+}
@@ -0,0 +1,111 @@
+package aQute.lib.osgi;
+
+import java.util.*;
+
+import aQute.lib.osgi.Clazz.*;
+
+/**
+ * An index of the class space of an analysis that answers the queries of
+ * {@link Analyzer#getClasses(String...)} without asking every class. The
+ * classes are indexed on their annotations and, on the first query that needs
+ * it, on the super classes, interfaces and imports of their super class
+ * chain. A super class that is not in the class space is found on the class
+ * path once for all the classes that extend it.
+ */
+class ClassIndex {
+	final Analyzer					analyzer;
+	final Map<String, Clazz>		classspace;
+	final Map<String, Set<Clazz>>	annotated	= new HashMap<String, Set<Clazz>>();
+	Map<String, Set<Clazz>>			extending;
+	Map<String, Set<Clazz>>			implementing;
+	Map<String, Set<Clazz>>			importing;
+
+	ClassIndex(Analyzer analyzer, Map<String, Clazz> classspace) {
+		this.analyzer = analyzer;
+		this.classspace = classspace;
+		for (Clazz c : classspace.values()) {
+			if (c.annotations != null)
+				for (String annotation : c.annotations)
+					add(annotated, annotation, c);
+		}
+	}
+
+	/**
+	 * Answer the classes that match a query, or null when the query must be
+	 * asked to each class with {@link Clazz#is(QUERY, Instruction, Analyzer)}.
+	 */
+	Set<Clazz> select(QUERY query, Instruction instr) throws Exception {
+		if (instr == null || instr.isNegated())
+			return null;
+
+		switch (query) {
+		case ANNOTATION:
+			return select(annotated, instr, instr.getPattern());
+
+		case EXTENDS:
+			hierarchy();
+			return select(extending, instr, null);
+
+		case IMPLEMENTS:
+			hierarchy();
+			return select(implementing, instr, null);
+
+		case IMPORTS:
+			hierarchy();
+			return select(importing, instr, null);
+
+		default:
+			return null;
+		}
+	}
+
+	private Set<Clazz> select(Map<String, Set<Clazz>> index, Instruction instr, String name) {
+		Set<Clazz> result = new HashSet<Clazz>();
+		if (name != null && index.containsKey(name))
+			result.addAll(index.get(name));
+
+		for (Map.Entry<String, Set<Clazz>> entry : index.entrySet()) {
+			if (instr.matches(entry.getKey()))
+				result.addAll(entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Index the classes on the super classes, interfaces and imports of the
+	 * classes in their super class chain. The chain ends at a super class
+	 * that cannot be found.
+	 */
+	private void hierarchy() throws Exception {
+		if (extending != null)
+			return;
+
+		Map<String, Set<Clazz>> extending = new HashMap<String, Set<Clazz>>();
+		implementing = new HashMap<String, Set<Clazz>>();
+		importing = new HashMap<String, Set<Clazz>>();
+
+		for (Clazz c : classspace.values()) {
+			Set<Clazz> chain = new HashSet<Clazz>();
+			for (Clazz s = c; s != null && chain.add(s); s = s.zuper == null ? null : analyzer
+					.findClass(s.zuper + ".class")) {
+				if (s.zuper != null)
+					add(extending, s.zuper, c);
+				if (s.interfaces != null)
+					for (String i : s.interfaces)
+						add(implementing, i, c);
+				for (String i : s.imports)
+					add(importing, i.replace('.', '/'), c);
+			}
+		}
+		this.extending = extending;
+	}
+
+	private static void add(Map<String, Set<Clazz>> index, String key, Clazz c) {
+		Set<Clazz> set = index.get(key);
+		if (set == null) {
+			set = new HashSet<Clazz>();
+			index.put(key, set);
+		}
+		set.add(c);
+	}
+}
@@ -0,0 +1,596 @@
+package aQute.lib.osgi;
+
+import java.io.*;
+import java.lang.annotation.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Scans a class file in a buffer for the information the analyzer needs: the
+ * name, super class, interfaces, access flags, annotations, source file and
+ * the referred packages. This is the same information that
+ * {@link Clazz#parseClassFile()} provides when there is no collector, but the
+ * constant pool is not turned into objects. For each constant only the tag and
+ * the offset in the buffer are recorded, UTF8 constants are decoded when they
+ * are needed. Descriptors and signatures are parsed on the bytes, only the
+ * package names are decoded.
+ *
+ * The buffer can be a heap or a mapped buffer, it is not modified.
+ */
+class ClassScanner {
+	final static byte	UTF8				= 1;
+	final static byte	INTEGER				= 3;
+	final static byte	FLOAT				= 4;
+	final static byte	LONG				= 5;
+	final static byte	DOUBLE				= 6;
+	final static byte	CLASS				= 7;
+	final static byte	STRING				= 8;
+	final static byte	FIELDREF			= 9;
+	final static byte	METHODREF			= 10;
+	final static byte	INTERFACEMETHODREF	= 11;
+	final static byte	NAMEANDTYPE			= 12;
+	final static byte	METHODHANDLE		= 15;
+	final static byte	METHODTYPE			= 16;
+	final static byte	INVOKEDYNAMIC		= 18;
+
+	final Clazz			clazz;
+	final ByteBuffer	buffer;
+	byte[]				tags;
+	int[]				offsets;
+	String[]			strings;
+	boolean[]			descriptors;
+	byte[]				scratch				= new byte[256];
+	int					forName				= -1;
+	int					class$				= -1;
+
+	ClassScanner(Clazz clazz, ByteBuffer buffer) {
+		this.clazz = clazz;
+		this.buffer = buffer.duplicate();
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	void scan() throws IOException {
+		try {
+			if (buffer.getInt() != 0xCAFEBABE)
+				throw new IOException("Not a valid class file (no CAFEBABE header)");
+
+			clazz.minor = u2();
+			clazz.major = u2();
+			pool();
+
+			int access_flags = u2();
+			clazz.isAbstract = (access_flags & Clazz.ACC_ABSTRACT) != 0;
+			clazz.isPublic = (access_flags & Clazz.ACC_PUBLIC) != 0;
+			clazz.isEnum = (access_flags & Clazz.ACC_ENUM) != 0;
+
+			clazz.className = className(u2());
+			clazz.zuper = className(u2());
+			if (clazz.zuper != null)
+				clazz.packageReference(Clazz.getPackage(clazz.zuper));
+
+			int interfacesCount = u2();
+			if (interfacesCount > 0) {
+				clazz.interfaces = new String[interfacesCount];
+				for (int i = 0; i < interfacesCount; i++)
+					clazz.interfaces[i] = className(u2());
+			}
+
+			boolean crawl = false;
+			int fieldsCount = u2();
+			for (int i = 0; i < fieldsCount; i++) {
+				u2(); // access flags
+				int name_index = u2();
+				descriptors[u2()] = true;
+
+				// See Clazz, pre 1.5 compilers use a class$ field for the
+				// class constants, we need to crawl the code for these
+				if (startsWith(name_index, "class$"))
+					crawl = true;
+				attributes(ElementType.FIELD, false);
+			}
+
+			if (crawl) {
+				forName = findMethodReference("java/lang/Class", "forName",
+						"(Ljava/lang/String;)Ljava/lang/Class;");
+				class$ = findMethodReference(clazz.className, "class$",
+						"(Ljava/lang/String;)Ljava/lang/Class;");
+			} else if (clazz.major == 48) {
+				forName = findMethodReference("java/lang/Class", "forName",
+						"(Ljava/lang/String;)Ljava/lang/Class;");
+				if (forName > 0) {
+					crawl = true;
+					class$ = findMethodReference(clazz.className, "class$",
+							"(Ljava/lang/String;)Ljava/lang/Class;");
+				}
+			}
+
+			int methodCount = u2();
+			for (int i = 0; i < methodCount; i++) {
+				u2(); // access flags
+				int name_index = u2();
+				descriptors[u2()] = true;
+				if (equals(name_index, "<init>"))
+					attributes(ElementType.CONSTRUCTOR, crawl);
+				else
+					attributes(ElementType.METHOD, crawl);
+			}
+
+			attributes(ElementType.TYPE, false);
+
+			for (int i = 1; i < tags.length; i++) {
+				if (tags[i] == CLASS)
+					classReference(buffer.getShort(offsets[i]) & 0xFFFF);
+			}
+
+			for (int i = 1; i < descriptors.length; i++) {
+				if (descriptors[i] && tags[i] == UTF8)
+					parseDescriptor(i);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Invalid class file, unexpected end: " + clazz.path);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Invalid class file, invalid index: " + clazz.path);
+		}
+	}
+
+	/**
+	 * Record the tag and offset of every constant in the pool. Longs and
+	 * doubles take two slots.
+	 */
+	void pool() throws IOException {
+		int count = u2();
+		tags = new byte[count];
+		offsets = new int[count];
+		strings = new String[count];
+		descriptors = new boolean[count];
+
+		process: for (int poolIndex = 1; poolIndex < count; poolIndex++) {
+			byte tag = buffer.get();
+			tags[poolIndex] = tag;
+			offsets[poolIndex] = buffer.position();
+
+			switch (tag) {
+			case 0:
+				break process;
+
+			case UTF8:
+				skip(u2());
+				break;
+
+			case INTEGER:
+			case FLOAT:
+				skip(4);
+				break;
+
+			case LONG:
+			case DOUBLE:
+				skip(8);
+				poolIndex++;
+				break;
+
+			case CLASS:
+			case STRING:
+			case METHODTYPE:
+				skip(2);
+				break;
+
+			case NAMEANDTYPE:
+				descriptors[buffer.getShort(buffer.position() + 2) & 0xFFFF] = true;
+				skip(4);
+				break;
+
+			case FIELDREF:
+			case METHODREF:
+			case INTERFACEMETHODREF:
+			case INVOKEDYNAMIC:
+				skip(4);
+				break;
+
+			case METHODHANDLE:
+				skip(3);
+				break;
+
+			default:
+				throw new IOException("Invalid tag " + tag);
+			}
+		}
+	}
+
+	void attributes(ElementType member, boolean crawl) throws IOException {
+		int attributesCount = u2();
+		for (int j = 0; j < attributesCount; j++) {
+			int attribute_name_index = u2();
+			int attribute_length = buffer.getInt();
+			if (attribute_length < 0)
+				throw new IllegalArgumentException("Attribute > 2Gb");
+
+			int end = buffer.position() + attribute_length;
+
+			if (equals(attribute_name_index, "RuntimeVisibleAnnotations"))
+				annotations(member, RetentionPolicy.RUNTIME);
+			else if (equals(attribute_name_index, "RuntimeVisibleParameterAnnotations"))
+				parameterAnnotations(member, RetentionPolicy.RUNTIME);
+			else if (equals(attribute_name_index, "RuntimeInvisibleAnnotations"))
+				annotations(member, RetentionPolicy.CLASS);
+			else if (equals(attribute_name_index, "RuntimeInvisibleParameterAnnotations"))
+				parameterAnnotations(member, RetentionPolicy.CLASS);
+			else if (equals(attribute_name_index, "SourceFile"))
+				clazz.sourceFile = string(u2());
+			else if (crawl && equals(attribute_name_index, "Code"))
+				code();
+			else if (member != ElementType.TYPE && equals(attribute_name_index, "Signature"))
+				parseDescriptor(u2());
+
+			buffer.position(end);
+		}
+	}
+
+	void parameterAnnotations(ElementType member, RetentionPolicy policy) throws IOException {
+		int num_parameters = buffer.get() & 0xFF;
+		for (int p = 0; p < num_parameters; p++)
+			annotations(member, policy);
+	}
+
+	void annotations(ElementType member, RetentionPolicy policy) throws IOException {
+		int num_annotations = u2();
+		for (int a = 0; a < num_annotations; a++)
+			annotation(member, policy);
+	}
+
+	void annotation(ElementType member, RetentionPolicy policy) throws IOException {
+		int type_index = u2();
+		if (clazz.annotations == null)
+			clazz.annotations = new HashSet<String>();
+		clazz.annotations.add(string(type_index));
+
+		if (policy == RetentionPolicy.RUNTIME) {
+			descriptors[type_index] = true;
+			clazz.hasRuntimeAnnotations = true;
+		} else
+			clazz.hasClassAnnotations = true;
+
+		int num_element_value_pairs = u2();
+		for (int v = 0; v < num_element_value_pairs; v++) {
+			u2(); // element name
+			elementValue(member, policy);
+		}
+	}
+
+	void elementValue(ElementType member, RetentionPolicy policy) throws IOException {
+		char tag = (char) (buffer.get() & 0xFF);
+		switch (tag) {
+		case 'B': // Byte
+		case 'C': // Character
+		case 'I': // Integer
+		case 'S': // Short
+		case 'D': // Double
+		case 'F': // Float
+		case 's': // String
+		case 'J': // Long
+		case 'Z': // Boolean
+			skip(2);
+			break;
+
+		case 'e': // enum constant
+			int type_name_index = u2();
+			if (policy == RetentionPolicy.RUNTIME)
+				descriptors[type_name_index] = true;
+			skip(2);
+			break;
+
+		case 'c': // Class
+			int class_info_index = u2();
+			if (policy == RetentionPolicy.RUNTIME)
+				descriptors[class_info_index] = true;
+			break;
+
+		case '@': // Annotation type
+			annotation(member, policy);
+			break;
+
+		case '[': // Array
+			int num_values = u2();
+			for (int i = 0; i < num_values; i++)
+				elementValue(member, policy);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Invalid value for Annotation ElementValue tag "
+					+ tag);
+		}
+	}
+
+	/**
+	 * Crawl the byte codes for Class.forName("...") constructs, see
+	 * {@link Clazz#crawl(byte[])}.
+	 */
+	void code() throws IOException {
+		skip(4); // max_stack, max_locals
+		int code_length = buffer.getInt();
+		int start = buffer.position();
+		int end = start + code_length;
+		int lastReference = -1;
+
+		while (buffer.position() < end) {
+			int instruction = 0xFF & buffer.get();
+			switch (instruction) {
+			case OpCodes.ldc:
+				lastReference = 0xFF & buffer.get();
+				break;
+
+			case OpCodes.ldc_w:
+				lastReference = u2();
+				break;
+
+			case OpCodes.invokespecial:
+			case OpCodes.invokevirtual:
+			case OpCodes.invokeinterface:
+				skip(2);
+				break;
+
+			case OpCodes.invokestatic: {
+				int methodref = u2();
+				if ((methodref == forName || methodref == class$) && lastReference != -1
+						&& tags[lastReference] == STRING) {
+					int index = buffer.getShort(offsets[lastReference]) & 0xFFFF;
+					String name = string(index);
+					if (name.startsWith("[") || name.endsWith(";"))
+						reference(offsets[index] + 2, offsets[index] + 2 + length(index), 0);
+					else {
+						int n = name.lastIndexOf('.');
+						if (n > 0)
+							clazz.packageReference(name.substring(0, n));
+					}
+				}
+				break;
+			}
+
+			case OpCodes.tableswitch: {
+				// Skip to place divisible by 4
+				while (((buffer.position() - start) & 0x3) != 0)
+					buffer.get();
+				/* int deflt = */
+				buffer.getInt();
+				int low = buffer.getInt();
+				int high = buffer.getInt();
+				skip((high - low + 1) * 4);
+				lastReference = -1;
+				break;
+			}
+
+			case OpCodes.lookupswitch: {
+				// Skip to place divisible by 4
+				while (((buffer.position() - start) & 0x3) != 0)
+					buffer.get();
+				/* deflt = */
+				buffer.getInt();
+				int npairs = buffer.getInt();
+				skip(npairs * 8);
+				lastReference = -1;
+				break;
+			}
+
+			default:
+				lastReference = -1;
+				skip(OpCodes.OFFSETS[instruction]);
+			}
+		}
+		buffer.position(end);
+		int exception_table_length = u2();
+		skip(exception_table_length * 8);
+		attributes(ElementType.METHOD, false);
+	}
+
+	/**
+	 * Find a method reference in the pool that points to the given class,
+	 * method name and descriptor.
+	 *
+	 * @return index in constant pool or -1
+	 */
+	int findMethodReference(String clazz, String methodname, String descriptor) {
+		for (int i = 1; i < tags.length; i++) {
+			if (tags[i] == METHODREF || tags[i] == INTERFACEMETHODREF) {
+				int class_index = buffer.getShort(offsets[i]) & 0xFFFF;
+				int name_and_type_index = buffer.getShort(offsets[i] + 2) & 0xFFFF;
+				if (tags[class_index] != CLASS || tags[name_and_type_index] != NAMEANDTYPE)
+					continue;
+
+				int class_name_index = buffer.getShort(offsets[class_index]) & 0xFFFF;
+				int name_index = buffer.getShort(offsets[name_and_type_index]) & 0xFFFF;
+				int type_index = buffer.getShort(offsets[name_and_type_index] + 2) & 0xFFFF;
+				if (equals(class_name_index, clazz) && equals(name_index, methodname)
+						&& equals(type_index, descriptor))
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A class constant, this is either an array descriptor or a class name.
+	 */
+	void classReference(int index) {
+		int start = offsets[index] + 2;
+		int end = start + length(index);
+		if (start == end)
+			return;
+
+		if (buffer.get(start) == '[' || buffer.get(end - 1) == ';') {
+			reference(start, end, 0);
+			return;
+		}
+
+		int n = lastIndexOf(start, end, '/');
+		if (n < 0) {
+			n = lastIndexOf(start, end, '.');
+			if (n < 0) {
+				clazz.packageReference(".");
+				return;
+			}
+		}
+		clazz.packageReference(decode(start, n - start).replace('/', '.'));
+	}
+
+	/**
+	 * Parse a descriptor or signature in the given UTF8 constant, see
+	 * {@link Clazz#parseDescriptor(String)}.
+	 */
+	void parseDescriptor(int index) {
+		if (tags[index] != UTF8)
+			return;
+
+		int rover = offsets[index] + 2;
+		int end = rover + length(index);
+		if (rover == end || buffer.get(rover) == '<')
+			return;
+
+		if (buffer.get(rover) == '(') {
+			rover = references(rover + 1, end, ')', 0);
+			rover++;
+		}
+		references(rover, end, (char) 0, 0);
+	}
+
+	int references(int rover, int end, char delimiter, int base) {
+		while (rover < end && buffer.get(rover) != delimiter) {
+			rover = reference(rover, end, base);
+		}
+		return rover;
+	}
+
+	/**
+	 * Parse a single reference, the package name is collected in the scratch
+	 * buffer starting at base, nested references use the part after it.
+	 */
+	int reference(int rover, int end, int base) {
+		byte c = get(rover, end);
+		while (c == '[')
+			c = get(++rover, end);
+
+		if (c == '<') {
+			rover = references(rover + 1, end, '>', base);
+		} else if (c == 'T') {
+			// Type variable name
+			rover++;
+			while (get(rover, end) != ';')
+				rover++;
+		} else if (c == 'L') {
+			int length = base;
+			int lastSlash = -1;
+			rover++;
+			while ((c = get(rover, end)) != ';') {
+				if (c == '<') {
+					rover = references(rover + 1, end, '>', length);
+				} else {
+					if (length == scratch.length) {
+						byte[] tmp = new byte[scratch.length * 2];
+						System.arraycopy(scratch, 0, tmp, 0, length);
+						scratch = tmp;
+					}
+					if (c == '/') {
+						lastSlash = length;
+						scratch[length++] = '.';
+					} else
+						scratch[length++] = c;
+				}
+				rover++;
+			}
+			if (lastSlash > base)
+				clazz.packageReference(decode(scratch, base, lastSlash - base));
+		}
+		return rover + 1;
+	}
+
+	byte get(int index, int end) {
+		if (index >= end)
+			throw new IllegalArgumentException("Invalid descriptor in " + clazz.path);
+		return buffer.get(index);
+	}
+
+	int lastIndexOf(int start, int end, char c) {
+		for (int i = end - 1; i >= start; i--)
+			if (buffer.get(i) == c)
+				return i;
+		return -1;
+	}
+
+	String className(int classIndex) {
+		if (classIndex == 0)
+			return null;
+		return string(buffer.getShort(offsets[classIndex]) & 0xFFFF);
+	}
+
+	int length(int index) {
+		return buffer.getShort(offsets[index]) & 0xFFFF;
+	}
+
+	/**
+	 * Answer the decoded UTF8 constant, decoded strings are remembered.
+	 */
+	String string(int index) {
+		if (tags[index] != UTF8)
+			return null;
+
+		String s = strings[index];
+		if (s == null)
+			strings[index] = s = decode(offsets[index] + 2, length(index));
+		return s;
+	}
+
+	/**
+	 * Compare a UTF8 constant with an ASCII string without decoding it.
+	 */
+	boolean equals(int index, String s) {
+		return tags[index] == UTF8 && length(index) == s.length() && startsWith(index, s);
+	}
+
+	boolean startsWith(int index, String s) {
+		if (tags[index] != UTF8 || length(index) < s.length())
+			return false;
+
+		int start = offsets[index] + 2;
+		for (int i = 0; i < s.length(); i++)
+			if (buffer.get(start + i) != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	String decode(int start, int length) {
+		if (buffer.hasArray())
+			return decode(buffer.array(), buffer.arrayOffset() + start, length);
+
+		if (length > scratch.length)
+			scratch = new byte[length];
+		for (int i = 0; i < length; i++)
+			scratch[i] = buffer.get(start + i);
+		return decode(scratch, 0, length);
+	}
+
+	/**
+	 * Decode the modified UTF8 as used in class files.
+	 */
+	static String decode(byte[] bytes, int offset, int length) {
+		char[] chars = new char[length];
+		int n = 0;
+		int end = offset + length;
+		while (offset < end) {
+			int c = bytes[offset++] & 0xFF;
+			if (c < 0x80)
+				chars[n++] = (char) c;
+			else if ((c & 0xE0) == 0xC0)
+				chars[n++] = (char) (((c & 0x1F) << 6) | (bytes[offset++] & 0x3F));
+			else
+				chars[n++] = (char) (((c & 0x0F) << 12) | ((bytes[offset++] & 0x3F) << 6)
+						| (bytes[offset++] & 0x3F));
+		}
+		return new String(chars, 0, n);
+	}
+
+	int u2() {
+		return buffer.getShort() & 0xFFFF;
+	}
+
+	void skip(int n) {
+		buffer.position(buffer.position() + n);
+	}
+}
@@ -0,0 +1,69 @@
+package aQute.lib.osgi;
+
+import java.util.*;
+
+/**
+ * An index over the JARs on a classpath. For each directory it holds the JARs
+ * that have resources in that directory, in classpath order, so that a
+ * resource can be found without asking every JAR. It also maps the file names
+ * of the JARs to the first JAR with that name.
+ *
+ * The index is a snapshot, the Analyzer discards it when the classpath
+ * changes.
+ */
+class ClasspathIndex {
+	final int						size;
+	final Map<String, List<Jar>>	directories	= new HashMap<String, List<Jar>>();
+	final Map<String, Jar>			names		= new HashMap<String, Jar>();
+
+	ClasspathIndex(List<Jar> classpath) {
+		size = classpath.size();
+		for (Jar jar : classpath) {
+			for (String dir : jar.getDirectoryPaths()) {
+				List<Jar> jars = directories.get(dir);
+				if (jars == null) {
+					jars = new ArrayList<Jar>(1);
+					directories.put(dir, jars);
+				}
+				jars.add(jar);
+			}
+
+			if (jar.source != null && !names.containsKey(jar.source.getName()))
+				names.put(jar.source.getName(), jar);
+		}
+	}
+
+	/**
+	 * Answer the first resource on the classpath with the given path.
+	 */
+	Resource findResource(String path) {
+		int n = path.lastIndexOf('/');
+		List<Jar> jars = directories.get(n < 0 ? "" : path.substring(0, n));
+		if (jars == null)
+			return null;
+
+		for (Jar jar : jars) {
+			Resource r = jar.getResource(path);
+			if (r != null)
+				return r;
+		}
+		return null;
+	}
+
+	/**
+	 * Answer the JARs that have resources in the given directory.
+	 */
+	List<Jar> getJars(String dir) {
+		List<Jar> jars = directories.get(dir);
+		if (jars == null)
+			return Collections.emptyList();
+		return jars;
+	}
+
+	/**
+	 * Answer the first JAR that was read from a file with the given name.
+	 */
+	Jar getJar(String fileName) {
+		return names.get(fileName);
+	}
+}
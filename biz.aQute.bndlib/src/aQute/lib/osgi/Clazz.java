@@ -2,7 +2,9 @@ package aQute.lib.osgi;
 
 import java.io.*;
 import java.lang.annotation.*;
+import java.lang.ref.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 import java.util.regex.*;
 
@@ -337,6 +339,7 @@ public class Clazz {
 	String[]			interfaces;
 	String				zuper;
 	ClassDataCollector	cd			= null;
+	SoftReference<ClassDataRecorder>	recorder;
 	Resource			resource;
 	FieldDef			last		= null;
 
@@ -349,17 +352,98 @@ public class Clazz {
 		return parseClassFileWithCollector(null);
 	}
 
-	public Set<String> parseClassFile(InputStream in) throws IOException {
-		return parseClassFile(in, null);
+	/**
+	 * Scan the class file of the resource. This collects the same information
+	 * as {@link #parseClassFile()} but it does not decode the constant pool,
+	 * see {@link #scanClassFile(ByteBuffer)}.
+	 */
+	public void scanClassFile() throws Exception {
+		scanClassFile(read(resource));
 	}
 
-	public Set<String> parseClassFileWithCollector(ClassDataCollector cd) throws Exception {
+	/**
+	 * Scan a class file in a buffer. This sets the name, super class,
+	 * interfaces, flags, annotations, and referred packages. UTF8 constants are
+	 * only decoded when they are needed so no cross references are returned.
+	 * The buffer may be a heap or mapped buffer, its position is not changed.
+	 * 
+	 * @param buffer
+	 *            the class file
+	 */
+	public void scanClassFile(ByteBuffer buffer) throws IOException {
+		new ClassScanner(this, buffer).scan();
+	}
+
+	/**
+	 * Read a resource in a buffer. A file resource is read in a buffer of the
+	 * right size without an intermediate stream.
+	 */
+	static ByteBuffer read(Resource resource) throws Exception {
+		if (resource instanceof FileResource) {
+			FileInputStream in = new FileInputStream(((FileResource) resource).file);
+			try {
+				FileChannel channel = in.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+					;
+				buffer.flip();
+				return buffer;
+			} finally {
+				in.close();
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		InputStream in = resource.openInputStream();
 		try {
-			return parseClassFile(in, cd);
+			byte[] buffer = new byte[8192];
+			int size;
+			while ((size = in.read(buffer)) > 0)
+				out.write(buffer, 0, size);
 		} finally {
 			in.close();
 		}
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	public Set<String> parseClassFile(InputStream in) throws IOException {
+		return parseClassFile(in, null);
+	}
+
+	/**
+	 * Parse the class file of the resource and report it to a collector. The
+	 * events of a parse are recorded and replayed once, to the collector that
+	 * follows, so two passes over the classes only parse them once. The
+	 * recording is released after it was replayed, and until then the garbage
+	 * collector can release it, so the classes of an analysis do not keep
+	 * their recordings.
+	 * 
+	 * @return the cross references or null if the collector did not want
+	 *         the class
+	 */
+	public Set<String> parseClassFileWithCollector(ClassDataCollector cd) throws Exception {
+		if (cd == null) {
+			InputStream in = resource.openInputStream();
+			try {
+				return parseClassFile(in, cd);
+			} finally {
+				in.close();
+			}
+		}
+
+		ClassDataRecorder recorder = this.recorder == null ? null : this.recorder.get();
+		this.recorder = null;
+		if (recorder == null) {
+			recorder = new ClassDataRecorder();
+			InputStream in = resource.openInputStream();
+			try {
+				recorder.xref = parseClassFile(in, recorder);
+			} finally {
+				in.close();
+			}
+			this.recorder = new SoftReference<ClassDataRecorder>(recorder);
+		}
+		return recorder.replay(cd) ? recorder.xref : null;
 	}
 
 	public Set<String> parseClassFile(InputStream in, ClassDataCollector cd) throws IOException {
@@ -64,6 +64,8 @@ public interface Constants {
 	String					BUILDPATH									= "-buildpath";
 	String					BUILDPACKAGES								= "-buildpackages";
 	String					BUMPPOLICY									= "-bumppolicy";
+	String					CLASSCACHE									= "-classcache";
+	String					COMPRESSION									= "-compression";
 	String					CONDUIT										= "-conduit";
 	String					COMPILER_SOURCE								= "-source";
 	String					COMPILER_TARGET								= "-target";
@@ -86,6 +88,7 @@ public interface Constants {
 	String					NOUSES										= "-nouses";
 	@Deprecated String		NOPE										= "-nope";
 	String					NOBUNDLES									= "-nobundles";
+	String					PARALLEL									= "-parallel";
 	String					PEDANTIC									= "-pedantic";
 	String					PLUGIN										= "-plugin";
 	String					POM											= "-pom";
@@ -137,7 +140,7 @@ public interface Constants {
 			SOURCES, SOURCEPATH, SUB, RUNBUNDLES, RUNPATH, RUNSYSTEMPACKAGES, RUNPROPERTIES,
 			REPORTNEWER, UNDERTEST, TESTPATH, TESTPACKAGES, TESTREPORT, VERBOSE, NOMANIFEST,
 			DEPLOYREPO, RELEASEREPO, SAVEMANIFEST, RUNVM, WAB, WABLIB, RUNFRAMEWORK, RUNTRACE,
-			TESTCONTINUOUS, SNAPSHOT												};
+			TESTCONTINUOUS, SNAPSHOT, PARALLEL, CLASSCACHE, COMPRESSION							};
 
 	// Ignore bundle specific headers. These bundles do not make
 	// a lot of sense to inherit
@@ -223,6 +226,7 @@ public interface Constants {
 	String					CURRENT_PACKAGE								= "@package";
 
 	String					BUILDFILES									= "buildfiles";
+	String					BUILDFINGERPRINT							= "buildfingerprint";
 
 	String					EMPTY_HEADER								= "<<EMPTY>>";
 
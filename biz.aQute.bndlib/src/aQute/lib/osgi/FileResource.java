@@ -31,7 +31,7 @@ public class FileResource implements Resource {
 		copy(this, out);
 	}
 
-	static synchronized void copy(Resource resource, OutputStream out)
+	static void copy(Resource resource, OutputStream out)
 			throws Exception {
 		InputStream in = resource.openInputStream();
 		try {
@@ -115,15 +115,11 @@ public class Instruction {
     public static <T> Collection<T> select(Collection<Instruction> matchers,
             Collection<T> targets) {
         Collection<T> result = Create.list();
-        outer: for (T t : targets) {
-            String s = t.toString();
-            for (Instruction i : matchers) {
-                if (i.matches(s)) {
-                    if (!i.isNegated())
-                        result.add(t);
-                    continue outer;
-                }
-            }
+        InstructionSet set = new InstructionSet(matchers);
+        for (T t : targets) {
+            Instruction i = set.matches(t.toString());
+            if (i != null && !i.isNegated())
+                result.add(t);
         }
         return result;
     }
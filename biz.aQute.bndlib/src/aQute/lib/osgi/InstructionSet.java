@@ -0,0 +1,131 @@
+package aQute.lib.osgi;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * An ordered list of instructions compiled for matching many names. The first
+ * instruction in the list that matches a name wins, like when the instructions
+ * are tried one by one. Instructions without wildcards are found with a hash
+ * lookup, instructions like com.acme.* with a hash lookup of every prefix of
+ * the name that ends before a '.'. Only the remaining instructions are
+ * matched with their regular expression.
+ *
+ * The set remembers which instructions matched a name.
+ */
+public class InstructionSet {
+	final static Pattern		LITERAL		= Pattern.compile("([-\\w]|\\\\\\.)+");
+	final static Pattern		PREFIX		= Pattern.compile("(([-\\w]|\\\\\\.)+)\\\\\\.\\.\\*\\|\\1");
+
+	final Instruction[]			instructions;
+	final boolean[]				used;
+	final Map<String, Integer>	literals	= new HashMap<String, Integer>();
+	final Map<String, Integer>	prefixes	= new HashMap<String, Integer>();
+	final int[]					others;
+
+	public InstructionSet(Collection<Instruction> instructions) {
+		this.instructions = instructions.toArray(new Instruction[instructions.size()]);
+		this.used = new boolean[this.instructions.length];
+
+		int[] others = new int[this.instructions.length];
+		int n = 0;
+		for (int i = 0; i < this.instructions.length; i++) {
+			String regex = this.instructions[i].instruction;
+			Matcher m;
+			if (LITERAL.matcher(regex).matches())
+				add(literals, unescape(regex), i);
+			else if ((m = PREFIX.matcher(regex)).matches())
+				add(prefixes, unescape(m.group(1)), i);
+			else if (regex.equals(".*"))
+				add(prefixes, "", i);
+			else
+				others[n++] = i;
+		}
+		this.others = new int[n];
+		System.arraycopy(others, 0, this.others, 0, n);
+	}
+
+	private static void add(Map<String, Integer> map, String key, int index) {
+		// An earlier instruction for the same name shadows later ones
+		if (!map.containsKey(key))
+			map.put(key, index);
+	}
+
+	private static String unescape(String regex) {
+		return regex.replace("\\.", ".");
+	}
+
+	/**
+	 * Answer the first instruction that matches the value, or null.
+	 */
+	public Instruction matches(String value) {
+		return matches(value, instructions.length);
+	}
+
+	/**
+	 * Answer the first instruction that matches the value, only the given
+	 * number of instructions at the start of the list are considered.
+	 */
+	public Instruction matches(String value, int limit) {
+		int n = indexOf(value, limit);
+		if (n < 0)
+			return null;
+
+		used[n] = true;
+		return instructions[n];
+	}
+
+	/**
+	 * Answer the index of the first instruction that matches the value, or
+	 * -1. This does not mark the instruction as used.
+	 */
+	public int indexOf(String value) {
+		return indexOf(value, instructions.length);
+	}
+
+	int indexOf(String value, int limit) {
+		int best = limit;
+
+		Integer n = literals.get(value);
+		if (n != null && n < best)
+			best = n;
+
+		if (!prefixes.isEmpty()) {
+			best = prefix(value, "", best);
+			for (int i = value.indexOf('.'); i >= 0 && best > 0; i = value.indexOf('.', i + 1))
+				best = prefix(value, value.substring(0, i), best);
+			best = prefix(value, value, best);
+		}
+
+		for (int i = 0; i < others.length && others[i] < best; i++) {
+			if (instructions[others[i]].matches(value)) {
+				best = others[i];
+				break;
+			}
+		}
+		return best < limit ? best : -1;
+	}
+
+	private int prefix(String value, String prefix, int best) {
+		Integer n = prefixes.get(prefix);
+		if (n != null && n < best)
+			return n;
+		return best;
+	}
+
+	/**
+	 * Answer the instructions that did not match anything yet, in order.
+	 */
+	public List<Instruction> getUnused() {
+		List<Instruction> unused = new ArrayList<Instruction>();
+		for (int i = 0; i < instructions.length; i++) {
+			if (!used[i])
+				unused.add(instructions[i]);
+		}
+		return unused;
+	}
+
+	public int size() {
+		return instructions.length;
+	}
+}
@@ -6,6 +6,8 @@ import java.io.*;
 import java.nio.charset.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.jar.*;
 import java.util.regex.*;
 import java.util.zip.*;
@@ -27,6 +29,10 @@ public class Jar implements Closeable {
 	Reporter							reporter;
 	boolean								doNotTouchManifest;
 	boolean								nomanifest;
+	int									compression	= Deflater.DEFAULT_COMPRESSION;
+	int									parallel	= 1;
+	final Map<Resource, Map<String, byte[]>>	digests		= new WeakHashMap<Resource, Map<String, byte[]>>();
+	volatile ZipIndex					index;
 
 	public Jar(String name) {
 		this.name = name;
@@ -62,6 +68,63 @@ public class Jar implements Closeable {
 		this(getName(f), f, null);
 	}
 
+	/**
+	 * Create a JAR from a file or directory. If lazy is set and the file is a
+	 * JAR then only its central directory is indexed, resources are created
+	 * when they are asked for. The resources and directories maps are only
+	 * built when they are asked for or when the JAR is modified. This is
+	 * intended for JARs that are only read, like the JARs on a classpath.
+	 * 
+	 * @param f
+	 *            the file or directory
+	 * @param lazy
+	 *            index a JAR file lazily
+	 */
+	public Jar(File f, boolean lazy) throws IOException {
+		this(getName(f));
+		source = f;
+		if (lazy && f.isFile()) {
+			try {
+				index = ZipIndex.open(f);
+			} catch (IOException e) {
+				// Let the ZipFile report the problem below
+			}
+			if (index != null) {
+				zipFile = index.zip;
+				resources = null;
+				directories = null;
+				manifestFirst = index.manifestFirst;
+				updateModified(index.lastModified, index.lastModifiedName);
+				return;
+			}
+		}
+
+		if (f.isDirectory())
+			FileResource.build(this, f, null);
+		else if (f.isFile())
+			zipFile = ZipResource.build(this, f);
+		else
+			throw new IllegalArgumentException("A Jar can only accept a valid file or directory: "
+					+ f);
+	}
+
+	/**
+	 * A lazy JAR creates its maps when they are needed, after this the index is
+	 * no longer used.
+	 */
+	private synchronized void init() {
+		ZipIndex index = this.index;
+		if (index == null)
+			return;
+
+		resources = new TreeMap<String, Resource>();
+		directories = new TreeMap<String, Map<String, Resource>>();
+		for (int i = 0; i < index.size(); i++)
+			put(index.getName(i), index.getResource(i), true);
+		manifestFirst = index.manifestFirst;
+		this.index = null;
+	}
+
 	/**
 	 * Make the JAR file name the project name if we get a src or bin directory.
 	 * 
@@ -101,6 +164,11 @@ public class Jar implements Closeable {
 	}
 
 	public boolean putResource(String path, Resource resource, boolean overwrite) {
+		init();
+		return put(path, resource, overwrite);
+	}
+
+	private boolean put(String path, Resource resource, boolean overwrite) {
 		updateModified(resource.lastModified(), path);
 		while (path.startsWith("/"))
 			path = path.substring(1);
@@ -133,6 +201,9 @@ public class Jar implements Closeable {
 	}
 
 	public Resource getResource(String path) {
+		ZipIndex index = this.index;
+		if (index != null)
+			return index.getResource(path);
 		return resources.get(path);
 	}
 
@@ -145,10 +216,45 @@ public class Jar implements Closeable {
 	}
 
 	public Map<String, Map<String, Resource>> getDirectories() {
+		init();
 		return directories;
 	}
 
+	/**
+	 * Answer the contents of a directory. This is the same as
+	 * getDirectories().get(path) but a lazy JAR does not build its maps.
+	 * 
+	 * @param path
+	 *            the path of the directory
+	 * @return the resources in the directory or null if it has none
+	 */
+	public Map<String, Resource> getDirectoryContents(String path) {
+		ZipIndex index = this.index;
+		if (index != null)
+			return index.getDirectory(path);
+		return directories.get(path);
+	}
+
+	/**
+	 * Answer the paths of the directories that contain resources, sorted.
+	 * 
+	 * @return the directory paths
+	 */
+	public List<String> getDirectoryPaths() {
+		ZipIndex index = this.index;
+		if (index != null)
+			return Arrays.asList(index.getDirectories());
+
+		List<String> list = new ArrayList<String>(directories.size());
+		for (Map.Entry<String, Map<String, Resource>> i : directories.entrySet()) {
+			if (i.getValue() != null)
+				list.add(i.getKey());
+		}
+		return list;
+	}
+
 	public Map<String, Resource> getResources() {
+		init();
 		return resources;
 	}
 
@@ -179,6 +285,9 @@ public class Jar implements Closeable {
 	}
 
 	public boolean exists(String path) {
+		ZipIndex index = this.index;
+		if (index != null)
+			return index.find(path) >= 0;
 		return resources.containsKey(path);
 	}
 
@@ -204,9 +313,22 @@ public class Jar implements Closeable {
 		write(new File(file));
 	}
 
+	/**
+	 * Write the JAR. Resources that come unmodified from a ZIP file are copied
+	 * in their compressed form, other resources are compressed with the
+	 * compression level, concurrently if parallel is more than 1.
+	 */
 	public void write(OutputStream out) throws Exception {
-		ZipOutputStream jout = nomanifest || doNotTouchManifest ? new ZipOutputStream(out)
-				: new JarOutputStream(out);
+		ZipWriter jout = new ZipWriter(out, !(nomanifest || doNotTouchManifest), compression,
+				parallel);
+		try {
+			write(jout);
+		} finally {
+			jout.close();
+		}
+	}
+
+	private void write(ZipWriter jout) throws Exception {
 		Set<String> done = new HashSet<String>();
 
 		Set<String> directories = new HashSet<String>();
@@ -228,15 +350,16 @@ public class Jar implements Closeable {
 		jout.finish();
 	}
 
-	private void doManifest(Set<String> done, ZipOutputStream jout) throws Exception {
+	private void doManifest(Set<String> done, ZipWriter jout) throws Exception {
 		if (nomanifest)
 			return;
 
-		JarEntry ze = new JarEntry("META-INF/MANIFEST.MF");
-		jout.putNextEntry(ze);
-		writeManifest(jout);
-		jout.closeEntry();
-		done.add(ze.getName());
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		writeManifest(bout);
+		long now = System.currentTimeMillis();
+		jout.write("META-INF/MANIFEST.MF", now, null, new EmbeddedResource(bout.toByteArray(),
+				now));
+		done.add("META-INF/MANIFEST.MF");
 	}
 
 	/**
@@ -428,37 +551,31 @@ public class Jar implements Closeable {
 		return sb.toString();
 	}
 
-	private void writeResource(ZipOutputStream jout, Set<String> directories, String path,
+	private void writeResource(ZipWriter jout, Set<String> directories, String path,
 			Resource resource) throws Exception {
 		if (resource == null)
 			return;
 
 		createDirectories(directories, jout, path);
-		ZipEntry ze = new ZipEntry(path);
-		ze.setMethod(ZipEntry.DEFLATED);
 		long lastModified = resource.lastModified();
 		if (lastModified == 0L) {
 			lastModified = System.currentTimeMillis();
 		}
-		ze.setTime(lastModified);
+		byte[] extra = null;
 		if (resource.getExtra() != null)
-			ze.setExtra(resource.getExtra().getBytes());
-		jout.putNextEntry(ze);
-		resource.write(jout);
-		jout.closeEntry();
+			extra = resource.getExtra().getBytes();
+		jout.write(path, lastModified, extra, resource);
 	}
 
-	void createDirectories(Set<String> directories, ZipOutputStream zip, String name)
-			throws IOException {
+	void createDirectories(Set<String> directories, ZipWriter zip, String name)
+			throws Exception {
 		int index = name.lastIndexOf('/');
 		if (index > 0) {
 			String path = name.substring(0, index);
 			if (directories.contains(path))
 				return;
 			createDirectories(directories, zip, path);
-			ZipEntry ze = new ZipEntry(path + '/');
-			zip.putNextEntry(ze);
-			zip.closeEntry();
+			zip.directory(path + '/');
 			directories.add(path);
 		}
 	}
@@ -501,6 +618,7 @@ public class Jar implements Closeable {
 	}
 
 	public void close() {
+		index = null;
 		if (zipFile != null)
 			try {
 				zipFile.close();
@@ -529,18 +647,18 @@ public class Jar implements Closeable {
 	}
 
 	public boolean hasDirectory(String path) {
+		ZipIndex index = this.index;
+		if (index != null)
+			return index.hasDirectory(path);
 		return directories.get(path) != null;
 	}
 
 	public List<String> getPackages() {
-		List<String> list = new ArrayList<String>(directories.size());
-
-		for (Map.Entry<String, Map<String, Resource>> i : directories.entrySet()) {
-			if (i.getValue() != null) {
-				String path = i.getKey();
-				String pack = path.replace('/', '.');
-				list.add(pack);
-			}
+		List<String> paths = getDirectoryPaths();
+		List<String> list = new ArrayList<String>(paths.size());
+		for (String path : paths) {
+			String pack = path.replace('/', '.');
+			list.add(pack);
 		}
 		return list;
 	}
@@ -562,6 +680,7 @@ public class Jar implements Closeable {
 	}
 
 	public Resource remove(String path) {
+		init();
 		Resource resource = resources.remove(path);
 		String dir = getDirectory(path);
 		Map<String, Resource> mdir = directories.get(dir);
@@ -579,6 +698,33 @@ public class Jar implements Closeable {
 		doNotTouchManifest = true;
 	}
 
+	/**
+	 * Set the compression level used when the JAR is written, from 0 (store)
+	 * to 9 (best compression). The default is
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setCompression(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		this.compression = level;
+	}
+
+	public int getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Set the number of resources that are compressed concurrently when the
+	 * JAR is written. The default is 1.
+	 */
+	public void setParallel(int parallel) {
+		this.parallel = Math.max(1, parallel);
+	}
+
+	public int getParallel() {
+		return parallel;
+	}
+
 	/**
 	 * Calculate the checksums and set them in the manifest.
 	 */
@@ -587,36 +733,133 @@ public class Jar implements Closeable {
 		if (algorithms == null)
 			algorithms = new String[] { "SHA", "MD5" };
 
-		MessageDigest digests[] = new MessageDigest[algorithms.length];
-		int n = 0;
-		for (String algorithm : algorithms)
-			digests[n++] = MessageDigest.getInstance(algorithm);
-
-		byte buffer[] = new byte[30000];
-
-		for (Map.Entry<String, Resource> entry : resources.entrySet()) {
-			Resource r = entry.getValue();
+		Map<String, byte[][]> map = getDigests(getResources().keySet(), algorithms);
+		for (Map.Entry<String, byte[][]> entry : map.entrySet()) {
 			Attributes attributes = getManifest().getAttributes(entry.getKey());
 			if (attributes == null) {
 				attributes = new Attributes();
 				getManifest().getEntries().put(entry.getKey(), attributes);
 			}
-			InputStream in = r.openInputStream();
-			try {
-				for (MessageDigest d : digests)
-					d.reset();
-				int size = in.read(buffer);
-				while (size > 0) {
-					for (MessageDigest d : digests)
+			byte[][] values = entry.getValue();
+			for (int i = 0; i < algorithms.length; i++)
+				attributes.putValue(algorithms[i] + "-Digest", Base64.encodeBase64(values[i]));
+		}
+	}
+
+	/**
+	 * Answer the digests of the resources with the given paths. The resources
+	 * are digested concurrently when parallel is more than 1.
+	 *
+	 * @param paths
+	 *            the paths of the resources
+	 * @param algorithms
+	 *            the names of the digest algorithms
+	 * @return a map from path to the digests, in the order of the paths and
+	 *         the algorithms
+	 * @see #getDigests(Resource, String[])
+	 */
+	public Map<String, byte[][]> getDigests(Collection<String> paths, final String... algorithms)
+			throws Exception {
+		final List<String> list = new ArrayList<String>(paths);
+		final List<Resource> resources = new ArrayList<Resource>(list.size());
+		for (String path : list)
+			resources.add(getResource(path));
+
+		final byte[][][] result = new byte[list.size()][][];
+		final Throwable[] failures = new Throwable[list.size()];
+		int threads = Math.min(parallel, list.size());
+		if (threads > 1) {
+			final AtomicInteger next = new AtomicInteger();
+			List<Future<?>> workers = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+				workers.add(Processor.executor.submit(new Runnable() {
+					public void run() {
+						int i;
+						while ((i = next.getAndIncrement()) < resources.size()) {
+							try {
+								result[i] = getDigests(resources.get(i), algorithms);
+							} catch (Throwable e) {
+								failures[i] = e;
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> worker : workers)
+				worker.get();
+		} else {
+			for (int i = 0; i < resources.size(); i++)
+				result[i] = getDigests(resources.get(i), algorithms);
+		}
+
+		Map<String, byte[][]> map = new LinkedHashMap<String, byte[][]>();
+		for (int i = 0; i < list.size(); i++) {
+			if (failures[i] instanceof Exception)
+				throw (Exception) failures[i];
+			if (failures[i] instanceof Error)
+				throw (Error) failures[i];
+			map.put(list.get(i), result[i]);
+		}
+		return map;
+	}
+
+	/**
+	 * Answer the digests of a resource. The digests are cached per resource,
+	 * the resource is only read for the algorithms that were not calculated
+	 * before, and then only once for all of them. This allows the checksums
+	 * and a signature to be calculated without reading the content twice.
+	 *
+	 * @param resource
+	 *            the resource
+	 * @param algorithms
+	 *            the names of the digest algorithms
+	 * @return the digests in the order of the algorithms
+	 */
+	public byte[][] getDigests(Resource resource, String... algorithms) throws Exception {
+		byte[][] result = new byte[algorithms.length][];
+		MessageDigest[] missing = new MessageDigest[algorithms.length];
+		int n = 0;
+		synchronized (digests) {
+			Map<String, byte[]> cached = digests.get(resource);
+			for (int i = 0; i < algorithms.length; i++) {
+				result[i] = cached == null ? null : cached.get(algorithms[i]);
+				if (result[i] == null) {
+					missing[i] = MessageDigest.getInstance(algorithms[i]);
+					n++;
+				}
+			}
+		}
+		if (n == 0)
+			return result;
+
+		byte buffer[] = new byte[30000];
+		InputStream in = resource.openInputStream();
+		try {
+			int size = in.read(buffer);
+			while (size > 0) {
+				for (MessageDigest d : missing)
+					if (d != null)
 						d.update(buffer, 0, size);
-					size = in.read(buffer);
+				size = in.read(buffer);
+			}
+		} finally {
+			in.close();
+		}
+
+		synchronized (digests) {
+			Map<String, byte[]> cached = digests.get(resource);
+			if (cached == null) {
+				cached = new HashMap<String, byte[]>();
+				digests.put(resource, cached);
+			}
+			for (int i = 0; i < algorithms.length; i++) {
+				if (missing[i] != null) {
+					result[i] = missing[i].digest();
+					cached.put(algorithms[i], result[i]);
 				}
-			} finally {
-				in.close();
 			}
-			for (MessageDigest d : digests)
-				attributes.putValue(d.getAlgorithm() + "-Digest", Base64.encodeBase64(d.digest()));
 		}
+		return result;
 	}
 
 	Pattern	BSN	= Pattern.compile("\\s*([-\\w\\d\\._]+)\\s*;?.*");
@@ -5,6 +5,7 @@ import java.lang.reflect.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 import aQute.lib.io.*;
@@ -35,9 +36,56 @@ ${parameter##word}
     Remove largest prefix pattern. 
  */
 public class Macro implements Replacer {
-	Processor	domain;
-	Object		targets[];
-	boolean		flattening;
+	final static int							MAX_TEMPLATES	= 1000;
+	final static int							MAX_MEMO		= 1000;
+
+	/**
+	 * Macros that only depend on their arguments and the properties. Their
+	 * results are remembered until a property changes.
+	 */
+	final static Set<String>					PURE			= new HashSet<String>(Arrays.asList(
+																		"uniq", "filter", "filterout",
+																		"sort", "join", "if", "replace",
+																		"toclasspath", "path", "version",
+																		"range"));
+
+	/**
+	 * Compiled lines, shared by all macro processors since a template only
+	 * depends on the line.
+	 */
+	final static Map<String, Template>			templates		= new HashMap<String, Template>();
+
+	/**
+	 * Incremented when the properties of any processor change, this
+	 * invalidates the memoized results.
+	 */
+	final static AtomicInteger					generation		= new AtomicInteger();
+
+	Processor									domain;
+	Object										targets[];
+	boolean										flattening;
+	final Map<Class<?>, Map<String, Method>>	methods			= new HashMap<Class<?>, Map<String, Method>>();
+	final Map<String, String>					memo			= new HashMap<String, String>();
+	int											memoGeneration;
+
+	/**
+	 * A compiled line. The parts are literal strings or nested templates. A
+	 * nested template that was terminated is a macro, the expansion of its
+	 * parts is the key that is replaced. A template that was not terminated
+	 * is copied after expansion, this is also the case for the top level of
+	 * a line.
+	 */
+	static class Template {
+		final Object[]	parts;
+		final boolean	macro;
+		final int		end;
+
+		Template(Object[] parts, boolean macro, int end) {
+			this.parts = parts;
+			this.macro = macro;
+			this.end = end;
+		}
+	}
 
 	public Macro(Processor domain, Object... targets) {
 		this.domain = domain;
@@ -54,43 +102,95 @@ public class Macro implements Replacer {
 	}
 
 	String process(String line, Link link) {
-		StringBuffer sb = new StringBuffer();
-		process(line, 0, '\u0000', '\u0000', sb, link);
-		return sb.toString();
+		if (line.indexOf('$') < 0 && line.indexOf('\u0000') < 0)
+			return line;
+
+		return expand(getTemplate(line), link);
 	}
 
-	int process(CharSequence org, int index, char begin, char end, StringBuffer result, Link link) {
-		StringBuilder line = new StringBuilder(org);
+	/**
+	 * Answer the compiled form of a line.
+	 */
+	static Template getTemplate(String line) {
+		synchronized (templates) {
+			Template template = templates.get(line);
+			if (template == null) {
+				template = compile(line, 0, '\u0000', '\u0000');
+				if (templates.size() >= MAX_TEMPLATES)
+					templates.clear();
+				templates.put(line, template);
+			}
+			return template;
+		}
+	}
+
+	/**
+	 * Compile a line from the given index until the end character.
+	 */
+	static Template compile(String line, int index, char begin, char end) {
+		List<Object> parts = new ArrayList<Object>();
+		StringBuilder text = new StringBuilder();
 		int nesting = 1;
 
-		StringBuffer variable = new StringBuffer();
 		outer: while (index < line.length()) {
 			char c1 = line.charAt(index++);
 			if (c1 == end) {
-				if (--nesting == 0) {
-					result.append(replace(variable.toString(), link));
-					return index;
-				}
+				if (--nesting == 0)
+					return new Template(parts(parts, text), true, index);
 			} else if (c1 == begin)
 				nesting++;
 			else if (c1 == '\\' && index < line.length() - 1 && line.charAt(index) == '$') {
 				// remove the escape backslash and interpret the dollar as a
 				// literal
 				index++;
-				variable.append('$');
+				text.append('$');
 				continue outer;
 			} else if (c1 == '$' && index < line.length() - 2) {
 				char c2 = line.charAt(index);
 				char terminator = getTerminator(c2);
 				if (terminator != 0) {
-					index = process(line, index + 1, c2, terminator, variable, link);
+					Template nested = compile(line, index + 1, c2, terminator);
+					if (text.length() > 0) {
+						parts.add(text.toString());
+						text.setLength(0);
+					}
+					parts.add(nested);
+					index = nested.end;
 					continue outer;
 				}
 			}
-			variable.append(c1);
+			text.append(c1);
 		}
-		result.append(variable);
-		return index;
+		return new Template(parts(parts, text), false, index);
+	}
+
+	static Object[] parts(List<Object> parts, StringBuilder text) {
+		if (text.length() > 0)
+			parts.add(text.toString());
+		return parts.toArray();
+	}
+
+	/**
+	 * Expand a template, the nested macros are replaced.
+	 */
+	String expand(Template template, Link link) {
+		if (template.parts.length == 1 && template.parts[0] instanceof String)
+			return expand((String) template.parts[0], template, link);
+
+		StringBuilder sb = new StringBuilder();
+		for (Object part : template.parts) {
+			if (part instanceof String)
+				sb.append((String) part);
+			else
+				sb.append(expand((Template) part, link));
+		}
+		return expand(sb.toString(), template, link);
+	}
+
+	private String expand(String variable, Template template, Link link) {
+		if (template.macro)
+			return replace(variable, link);
+		return variable;
 	}
 
 	public static char getTerminator(char c) {
@@ -165,6 +265,24 @@ public class Macro implements Replacer {
 		if (args == null || args.length == 0)
 			return null;
 
+		if (isPure(args[0])) {
+			String result = getMemo(key);
+			if (result == null) {
+				int current = generation.get();
+				int errors = domain.getErrors().size();
+				int warnings = domain.getWarnings().size();
+				result = doCommands(args, source);
+				if (result != null && errors == domain.getErrors().size()
+						&& warnings == domain.getWarnings().size())
+					putMemo(key, result, current);
+			}
+			return result;
+		}
+		return doCommands(args, source);
+	}
+
+	private String doCommands(String[] args, Link source) {
+
 		for (int i = 0; i < args.length; i++)
 			if (args[i].indexOf('\\') >= 0)
 				args[i] = args[i].replaceAll("\\\\;", ";");
@@ -204,12 +322,12 @@ public class Macro implements Replacer {
 			; // System.out.println("Huh? Target should never be null " +
 		// domain);
 		else {
-			String cname = "_" + method.replaceAll("-", "_");
+			String cname = "_" + method.replace('-', '_');
 			try {
-				Method m = target.getClass().getMethod(cname, new Class[] { String[].class });
+				Method m = getCommand(target, cname);
+				if (m == null)
+					return null;
 				return (String) m.invoke(target, new Object[] { args });
-			} catch (NoSuchMethodException e) {
-				// Ignore
 			} catch (InvocationTargetException e) {
 				if ( e.getCause() instanceof IllegalArgumentException ) {
 					domain.error("%s, for cmd: %s, arguments; %s", e.getMessage(), method, Arrays.toString(args));
@@ -225,6 +343,84 @@ public class Macro implements Replacer {
 		return null;
 	}
 
+	/**
+	 * Answer the command method of a target or null if the target does not
+	 * have this command. The methods are cached per class.
+	 */
+	Method getCommand(Object target, String cname) throws Exception {
+		Class<?> c = target.getClass();
+		synchronized (methods) {
+			Map<String, Method> map = methods.get(c);
+			if (map == null) {
+				map = new HashMap<String, Method>();
+				methods.put(c, map);
+			}
+			if (map.containsKey(cname))
+				return map.get(cname);
+
+			Method m = null;
+			try {
+				m = c.getMethod(cname, new Class[] { String[].class });
+			} catch (NoSuchMethodException e) {
+				// Not a command for this target
+			}
+			map.put(cname, m);
+			return m;
+		}
+	}
+
+	/**
+	 * A pure macro can be memoized when no domain or target overrides it.
+	 */
+	private boolean isPure(String method) {
+		if (!PURE.contains(method))
+			return false;
+
+		String cname = "_" + method;
+		try {
+			for (Processor rover = domain; rover != null; rover = rover.getParent())
+				if (getCommand(rover, cname) != null)
+					return false;
+
+			for (int i = 0; targets != null && i < targets.length; i++)
+				if (targets[i] != null && getCommand(targets[i], cname) != null)
+					return false;
+		} catch (Exception e) {
+			return false;
+		}
+		return true;
+	}
+
+	private String getMemo(String key) {
+		synchronized (memo) {
+			if (memoGeneration != generation.get()) {
+				memo.clear();
+				memoGeneration = generation.get();
+				return null;
+			}
+			return memo.get(key);
+		}
+	}
+
+	private void putMemo(String key, String value, int current) {
+		synchronized (memo) {
+			// Do not remember a result that was calculated with old properties
+			if (memoGeneration != current || current != generation.get())
+				return;
+
+			if (memo.size() >= MAX_MEMO)
+				memo.clear();
+			memo.put(key, value);
+		}
+	}
+
+	/**
+	 * Called when properties change, the memoized results are discarded.
+	 */
+	static void changed() {
+		generation.incrementAndGet();
+	}
+
 	/**
 	 * Return a unique list where the duplicates are removed.
 	 * 
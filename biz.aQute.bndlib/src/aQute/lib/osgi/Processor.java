@@ -26,6 +26,8 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	final Set<Object>				basicPlugins	= new HashSet<Object>();
 	final Set<Closeable>			toBeClosed		= new HashSet<Closeable>();
 	Set<Object>						plugins;
+	Map<Class<?>, List<Object>>		pluginsByType;
+	Map<String, LoadedPlugin>		loadedPlugins	= new HashMap<String, LoadedPlugin>();
 
 	boolean							pedantic;
 	boolean							trace;
@@ -64,6 +66,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		Properties ext = new Properties(processor.properties);
 		ext.putAll(this.properties);
 		this.properties = ext;
+		Macro.changed();
 	}
 
 	public Processor getParent() {
@@ -166,6 +169,18 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		return OSGiHeader.parseHeader(value, logger);
 	}
 
+	/**
+	 * Parse a header for reading only. The result is shared with other
+	 * callers and can not be modified, use {@link #parseHeader(String)} when
+	 * the header or its clauses are changed.
+	 * 
+	 * @param value
+	 * @return an unmodifiable map
+	 */
+	public Map<String, Map<String, String>> getParsedHeader(String value) {
+		return OSGiHeader.getHeader(value, this);
+	}
+
 	Map<String, Map<String, String>> getClauses(String header) {
 		return parseHeader(getProperty(header));
 	}
@@ -219,14 +234,8 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	 *            Each returned plugin implements this class/interface
 	 * @return A list of plugins
 	 */
-	public <T> List<T> getPlugins(Class<T> clazz) {
-		List<T> l = new ArrayList<T>();
-		Set<Object> all = getPlugins();
-		for (Object plugin : all) {
-			if (clazz.isInstance(plugin))
-				l.add(clazz.cast(plugin));
-		}
-		return l;
+	@SuppressWarnings("unchecked") public <T> List<T> getPlugins(Class<T> clazz) {
+		return new ArrayList<T>((List<T>) getPluginsByType(clazz));
 	}
 
 	/**
@@ -237,12 +246,29 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	 * @return
 	 */
 	public <T> T getPlugin(Class<T> clazz) {
+		List<Object> l = getPluginsByType(clazz);
+		return l.isEmpty() ? null : clazz.cast(l.get(0));
+	}
+
+	/**
+	 * Answer the plugins of a type, in the order of the plugins. The lists are
+	 * kept until the plugins change.
+	 */
+	private synchronized List<Object> getPluginsByType(Class<?> clazz) {
 		Set<Object> all = getPlugins();
-		for (Object plugin : all) {
-			if (clazz.isInstance(plugin))
-				return clazz.cast(plugin);
+		if (pluginsByType == null)
+			pluginsByType = new HashMap<Class<?>, List<Object>>();
+
+		List<Object> l = pluginsByType.get(clazz);
+		if (l == null) {
+			l = new ArrayList<Object>();
+			for (Object plugin : all) {
+				if (clazz.isInstance(plugin))
+					l.add(plugin);
+			}
+			pluginsByType.put(clazz, l);
 		}
-		return null;
+		return l;
 	}
 
 	/**
@@ -258,6 +284,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		if (this.plugins != null)
 			return this.plugins;
 
+		pluginsByType = null;
 		missingCommand = new HashSet<String>();
 		Set<Object> list = new LinkedHashSet<Object>();
 
@@ -284,22 +311,72 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	}
 
 	/**
+	 * A plugin that was loaded and the jars on its path with their last
+	 * modified time when it was loaded.
+	 */
+	static class LoadedPlugin {
+		final Object	plugin;
+		final File[]	path;
+		final long[]	modified;
+
+		LoadedPlugin(Object plugin, File[] path) {
+			this.plugin = plugin;
+			this.path = path;
+			this.modified = new long[path.length];
+			for (int i = 0; i < path.length; i++)
+				modified[i] = path[i].lastModified();
+		}
+
+		boolean isStale() {
+			for (int i = 0; i < path.length; i++) {
+				if (path[i].lastModified() != modified[i])
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Load the plugins of a -plugin header. A plugin that was loaded before
+	 * with the same class and attributes is used again unless one of the
+	 * jars on its path changed, a refresh only reloads those plugins. A plugin
+	 * that is used again is refreshed when it is {@link Refreshable}.
+	 * 
 	 * @param list
 	 * @param spe
 	 */
 	protected void loadPlugins(Set<Object> list, String spe) {
 		Map<String, Map<String, String>> plugins = parseHeader(spe);
+		Map<String, LoadedPlugin> loaded = new HashMap<String, LoadedPlugin>();
 		for (Map.Entry<String, Map<String, String>> entry : plugins.entrySet()) {
 			String key = (String) entry.getKey();
+			String id = key + entry.getValue();
+
+			LoadedPlugin previous = loadedPlugins.get(id);
+			if (previous != null) {
+				if (!previous.isStale()) {
+					if (previous.plugin instanceof Refreshable)
+						((Refreshable) previous.plugin).refresh();
+					loaded.put(id, previous);
+					list.add(previous.plugin);
+					continue;
+				}
+
+				// The loader has the old classes
+				trace("Reloading plugin %s", key);
+				pluginLoader = null;
+			}
 
 			try {
 				CL loader = getLoader();
+				List<File> files = new ArrayList<File>();
 				String path = entry.getValue().get(PATH_DIRECTIVE);
 				if (path != null) {
 					String parts[] = path.split("\\s*,\\s*");
 					for (String p : parts) {
 						File f = getFile(p).getAbsoluteFile();
 						loader.add(f.toURI().toURL());
+						files.add(f);
 					}
 				}
 
@@ -315,6 +392,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 					Object plugin = c.newInstance();
 					customize(plugin, entry.getValue());
 					list.add(plugin);
+					loaded.put(id, new LoadedPlugin(plugin, files.toArray(new File[files.size()])));
 				} catch (Throwable t) {
 					// We can defer the error if the plugin specifies
 					// a command name. In that case, we'll verify that
@@ -334,6 +412,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 				error("Problem loading the plugin: " + key + " exception: " + e);
 			}
 		}
+		loadedPlugins = loaded;
 	}
 
 	protected void setTypeSpecificPlugins(Set<Object> list) {
@@ -477,6 +556,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	public void setProperties(Properties properties) {
 		doIncludes(getBase(), properties);
 		this.properties.putAll(properties);
+		Macro.changed();
 	}
 
 	public void addProperties(File file) throws Exception {
@@ -491,6 +571,17 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		included.add(file);
 	}
 
+	/**
+	 * Answer the files that were included in the properties.
+	 * 
+	 * @return the included files, never null
+	 */
+	public synchronized Set<File> getIncluded() {
+		if (included == null)
+			return Collections.emptySet();
+		return new HashSet<File>(included);
+	}
+
 	/**
 	 * Inspect the properties and if you find -includes parse the line included
 	 * manifest files or properties files. The files are relative from the given
@@ -573,6 +664,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 
 	public void unsetProperty(String string) {
 		getProperties().remove(string);
+		Macro.changed();
 
 	}
 
@@ -612,6 +704,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 	}
 
 	public void propertiesChanged() {
+		Macro.changed();
 	}
 
 	/**
@@ -788,7 +881,33 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		// ruin
 		// our
 		// original
+
+		// Each package belongs to the first instruction that matches it,
+		// fixed and duplicate names do not match packages
+		List<Instruction> patterns = new ArrayList<Instruction>();
+		for (String instruction : instructions.keySet()) {
+			if (!instruction.startsWith("=") && !isDuplicate(instruction))
+				patterns.add(Instruction.getPattern(instruction));
+		}
+		InstructionSet matchers = new InstructionSet(patterns);
+		List<List<String>> matched = new ArrayList<List<String>>(patterns.size());
+		for (int n = 0; n < patterns.size(); n++)
+			matched.add(null);
+
+		for (String packageName : toVisit.keySet()) {
+			int n = matchers.indexOf(packageName);
+			if (n >= 0) {
+				List<String> packages = matched.get(n);
+				if (packages == null) {
+					packages = new ArrayList<String>();
+					matched.set(n, packages);
+				}
+				packages.add(packageName);
+			}
+		}
+
 		Map<String, Map<String, String>> result = newMap();
+		int next = 0;
 		for (Iterator<String> i = instructions.keySet().iterator(); i.hasNext();) {
 			String instruction = i.next();
 			String originalInstruction = instruction;
@@ -812,25 +931,22 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 				continue;
 			}
 
-			Instruction instr = Instruction.getPattern(instruction);
-
-			for (Iterator<String> p = toVisit.keySet().iterator(); p.hasNext();) {
-				String packageName = p.next();
+			Instruction instr = patterns.get(next);
+			List<String> packages = matched.get(next++);
+			if (packages == null)
+				continue;
 
-				if (instr.matches(packageName)) {
-					superfluous.remove(originalInstruction);
-					if (!instr.isNegated()) {
-						Map<String, String> newAttributes = new HashMap<String, String>();
-						newAttributes.putAll(actual.get(packageName));
-						newAttributes.putAll(instructedAttributes);
-						result.put(packageName, newAttributes);
-					} else if (ignored != null) {
-						ignored.put(packageName, new HashMap<String, String>());
-					}
-					p.remove(); // Can never match again for another pattern
+			superfluous.remove(originalInstruction);
+			for (String packageName : packages) {
+				if (!instr.isNegated()) {
+					Map<String, String> newAttributes = new HashMap<String, String>();
+					newAttributes.putAll(actual.get(packageName));
+					newAttributes.putAll(instructedAttributes);
+					result.put(packageName, newAttributes);
+				} else if (ignored != null) {
+					ignored.put(packageName, new HashMap<String, String>());
 				}
 			}
-
 		}
 		return result;
 	}
@@ -944,6 +1060,7 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 			}
 		}
 		getProperties().put(key, value);
+		Macro.changed();
 	}
 
 	/**
@@ -1352,6 +1469,34 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		return executor;
 	}
 
+	/**
+	 * Answer the number of threads that may be used for the work that can be
+	 * done in parallel. The -parallel instruction is either a boolean, true
+	 * means a thread per processor, or a number of threads. The default is 1,
+	 * which means that everything is done on the calling thread.
+	 *
+	 * @return the number of threads, always > 0
+	 */
+	public int getParallel() {
+		String value = getProperty(PARALLEL);
+		if (value == null)
+			return 1;
+
+		value = value.trim();
+		if (value.equalsIgnoreCase("true"))
+			return Runtime.getRuntime().availableProcessors();
+
+		if (value.length() == 0 || value.equalsIgnoreCase("false"))
+			return 1;
+
+		try {
+			return Math.max(1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			warning("Invalid value for %s, must be true, false, or a number: %s", PARALLEL, value);
+			return 1;
+		}
+	}
+
 	/**
 	 * These plugins are added to the total list of plugins. The separation
 	 * is necessary because the list of plugins is refreshed now and then
@@ -1363,11 +1508,13 @@ public class Processor implements Reporter, Registry, Constants, Closeable {
 		basicPlugins.add(plugin);
 		if (plugins != null)
 			plugins.add(plugin);
+		pluginsByType = null;
 	}
 
 	public synchronized void removeBasicPlugin(Object plugin) {
 		basicPlugins.remove(plugin);
 		if (plugins != null)
 			plugins.remove(plugin);
+		pluginsByType = null;
 	}
 }
@@ -201,14 +201,14 @@ public class Verifier extends Analyzer {
         fragment = getHeader(Analyzer.FRAGMENT_HOST) != null;
 
         bundleClasspath = getBundleClassPath();
-        mimports = parseHeader(manifest.getMainAttributes().getValue(
+        mimports = getParsedHeader(manifest.getMainAttributes().getValue(
                 Analyzer.IMPORT_PACKAGE));
-        mdynimports = parseHeader(manifest.getMainAttributes().getValue(
+        mdynimports = getParsedHeader(manifest.getMainAttributes().getValue(
                 Analyzer.DYNAMICIMPORT_PACKAGE));
-        mexports = parseHeader(manifest.getMainAttributes().getValue(
+        mexports = getParsedHeader(manifest.getMainAttributes().getValue(
                 Analyzer.EXPORT_PACKAGE));
 
-        ignore = parseHeader(manifest.getMainAttributes().getValue(
+        ignore = getParsedHeader(manifest.getMainAttributes().getValue(
                 Analyzer.IGNORE_PACKAGE));
     }
 
@@ -232,7 +232,7 @@ public class Verifier extends Analyzer {
         if (bcp == null) {
             list.add(dot);
         } else {
-            Map<String, Map<String, String>> entries = parseHeader(bcp);
+            Map<String, Map<String, String>> entries = getParsedHeader(bcp);
             for (Map.Entry<String, Map<String, String>> ex : entries.entrySet()) {
                 String jarOrDir = ex.getKey();
                 if (jarOrDir.equals(".")) {
@@ -391,7 +391,7 @@ public class Verifier extends Analyzer {
     private void verifyComponent() {
         String serviceComponent = getHeader("Service-Component");
         if (serviceComponent != null) {
-            Map<String, Map<String, String>> map = parseHeader(serviceComponent);
+            Map<String, Map<String, String>> map = getParsedHeader(serviceComponent);
             for (String component : map.keySet()) {
                 if (component.indexOf("*") < 0 && !dot.exists(component)) {
                     error("Service-Component entry can not be located in JAR: "
@@ -532,7 +532,7 @@ public class Verifier extends Analyzer {
     public void verify() throws Exception {
         if (classSpace == null)
             classSpace = analyzeBundleClasspath(dot,
-                    parseHeader(getHeader(Analyzer.BUNDLE_CLASSPATH)),
+                    getParsedHeader(getHeader(Analyzer.BUNDLE_CLASSPATH)),
                     contained, referred, uses);
         
         
@@ -579,7 +579,7 @@ public class Verifier extends Analyzer {
      */
     private void verifyDirectives(String header, String directives) {
     	Pattern pattern = Pattern.compile(directives);
-    	Map<String,Map<String,String>> map = parseHeader(manifest.getMainAttributes().getValue(header));
+    	Map<String,Map<String,String>> map = getParsedHeader(manifest.getMainAttributes().getValue(header));
     	for ( Map.Entry<String, Map<String,String>> entry : map.entrySet()) {
     		for ( String key : entry.getValue().keySet()) {
     			if ( key.endsWith(":")) {
@@ -610,7 +610,7 @@ public class Verifier extends Analyzer {
     }
 
     public boolean verifyActivationPolicy(String policy) {
-        Map<String, Map<String, String>> map = parseHeader(policy);
+        Map<String, Map<String, String>> map = getParsedHeader(policy);
         if (map.size() == 0)
             warning("Bundle-ActivationPolicy is set but has no argument %s",
                     policy);
@@ -630,7 +630,7 @@ public class Verifier extends Analyzer {
     }
 
     public void verifyBundleClasspath() {
-        Map<String, Map<String, String>> bcp = parseHeader(getHeader(Analyzer.BUNDLE_CLASSPATH));
+        Map<String, Map<String, String>> bcp = getParsedHeader(getHeader(Analyzer.BUNDLE_CLASSPATH));
         if (bcp.isEmpty() || bcp.containsKey("."))
             return;
 
@@ -670,7 +670,7 @@ public class Verifier extends Analyzer {
         if (dynamicImportPackage == null)
             return;
 
-        Map<String, Map<String, String>> map = parseHeader(dynamicImportPackage);
+        Map<String, Map<String, String>> map = getParsedHeader(dynamicImportPackage);
         for (String name : map.keySet()) {
             name = name.trim();
             if (!verify(name, WILDCARDPACKAGE))
@@ -693,7 +693,7 @@ public class Verifier extends Analyzer {
     }
 
     private void verifySymbolicName() {
-        Map<String, Map<String, String>> bsn = parseHeader(getHeader(Analyzer.BUNDLE_SYMBOLICNAME));
+        Map<String, Map<String, String>> bsn = getParsedHeader(getHeader(Analyzer.BUNDLE_SYMBOLICNAME));
         if (!bsn.isEmpty()) {
             if (bsn.size() > 1)
                 error("More than one BSN specified " + bsn);
@@ -870,7 +870,7 @@ public class Verifier extends Analyzer {
         if (value == null)
             return false;
 
-        Map<String, Map<String, String>> map = parseHeader(value);
+        Map<String, Map<String, String>> map = getParsedHeader(value);
         for (String header : map.keySet()) {
             if (!regex.matcher(header).matches()) {
                 String msg = "Invalid value for " + name + ", " + value
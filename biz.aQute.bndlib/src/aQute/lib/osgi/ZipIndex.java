@@ -0,0 +1,427 @@
+package aQute.lib.osgi;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A compact index of the central directory of a ZIP file. The central
+ * directory is read in one buffer and for each file entry only the offset of
+ * its header is kept, sorted on directory and name. Names are decoded when
+ * they are needed and resources are created on demand with the
+ * {@link ZipFile}. This allows a JAR on the classpath to be queried without
+ * creating an object per entry.
+ *
+ * ZIP64 archives are not supported, {@link #open(File)} returns null for them
+ * so that the caller can read the JAR the normal way.
+ */
+class ZipIndex {
+	final static int				EOCD			= 0x06054b50;
+	final static int				CEN				= 0x02014b50;
+	final static int				EOCD_SIZE		= 22;
+	final static int				CEN_SIZE		= 46;
+
+	final File						file;
+	final ZipFile					zip;
+	final ByteBuffer				cen;
+	final int[]						entries;
+	final Resource[]				resources;
+	final String[]					directories;
+	final int[]						starts;
+	final Map<String, Integer>		directoryIndex	= new HashMap<String, Integer>();
+	final long						lastModified;
+	final String					lastModifiedName;
+	final boolean					manifestFirst;
+
+	/**
+	 * Open an index on a ZIP file.
+	 *
+	 * @param file
+	 *            the ZIP file
+	 * @return the index or null if the central directory cannot be read
+	 */
+	static ZipIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer cen = read(raf);
+			if (cen == null)
+				return null;
+			return new ZipIndex(file, cen);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Answer the offsets of the local headers of the file entries of a ZIP
+	 * file.
+	 *
+	 * @param file
+	 *            the ZIP file
+	 * @return a map from entry name to offset or null if the central
+	 *         directory cannot be read
+	 */
+	static Map<String, Long> getLocalOffsets(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer cen = read(raf);
+			if (cen == null)
+				return null;
+
+			Map<String, Long> offsets = new HashMap<String, Long>();
+			int rover = 0;
+			while (rover + CEN_SIZE <= cen.limit() && cen.getInt(rover) == CEN) {
+				int nameLength = cen.getShort(rover + 28) & 0xFFFF;
+				int extraLength = cen.getShort(rover + 30) & 0xFFFF;
+				int commentLength = cen.getShort(rover + 32) & 0xFFFF;
+				byte[] name = new byte[nameLength];
+				for (int i = 0; i < nameLength; i++)
+					name[i] = cen.get(rover + CEN_SIZE + i);
+				offsets.put(new String(name, "UTF-8"), cen.getInt(rover + 42) & 0xFFFFFFFFL);
+				rover += CEN_SIZE + nameLength + extraLength + commentLength;
+			}
+			return offsets;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the end of central directory record and read the central
+	 * directory. It is not mapped, a mapped file cannot be unmapped and stays
+	 * locked on Windows until the mapping is collected.
+	 */
+	static ByteBuffer read(RandomAccessFile raf) throws IOException {
+		long length = raf.length();
+		if (length < EOCD_SIZE)
+			return null;
+
+		int tail = (int) Math.min(length, EOCD_SIZE + 0xFFFF);
+		byte[] buffer = new byte[tail];
+		raf.seek(length - tail);
+		raf.readFully(buffer);
+		ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = tail - EOCD_SIZE; i >= 0; i--) {
+			if (bb.getInt(i) != EOCD)
+				continue;
+
+			int comment = bb.getShort(i + 20) & 0xFFFF;
+			if (i + EOCD_SIZE + comment != tail)
+				continue;
+
+			int total = bb.getShort(i + 10) & 0xFFFF;
+			long size = bb.getInt(i + 12) & 0xFFFFFFFFL;
+			long offset = bb.getInt(i + 16) & 0xFFFFFFFFL;
+			if (total == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL
+					|| offset + size > length || size > Integer.MAX_VALUE)
+				return null;
+
+			byte[] cen = new byte[(int) size];
+			raf.seek(offset);
+			raf.readFully(cen);
+			return ByteBuffer.wrap(cen).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return null;
+	}
+
+	ZipIndex(File file, ByteBuffer cen) throws IOException {
+		this.file = file;
+		this.cen = cen;
+
+		int[] offsets = new int[64];
+		int n = 0;
+		int newest = -1;
+		long newestTime = -1;
+		int first = -1;
+
+		int rover = 0;
+		while (rover + CEN_SIZE <= cen.limit() && cen.getInt(rover) == CEN) {
+			int nameLength = cen.getShort(rover + 28) & 0xFFFF;
+			int extraLength = cen.getShort(rover + 30) & 0xFFFF;
+			int commentLength = cen.getShort(rover + 32) & 0xFFFF;
+			if (nameLength > 0 && cen.get(rover + CEN_SIZE + nameLength - 1) != '/') {
+				if (n == offsets.length) {
+					int[] tmp = new int[n * 2];
+					System.arraycopy(offsets, 0, tmp, 0, n);
+					offsets = tmp;
+				}
+				if (first < 0)
+					first = rover;
+
+				long time = cen.getInt(rover + 12) & 0xFFFFFFFFL;
+				if (time > newestTime) {
+					newestTime = time;
+					newest = rover;
+				}
+				offsets[n++] = rover;
+			}
+			rover += CEN_SIZE + nameLength + extraLength + commentLength;
+		}
+
+		entries = new int[n];
+		System.arraycopy(offsets, 0, entries, 0, n);
+		sort(entries, new int[n], 0, n);
+		resources = new Resource[n];
+
+		List<String> dirs = new ArrayList<String>();
+		int[] s = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || compareDirectory(entries[i - 1], entries[i]) != 0) {
+				s[dirs.size()] = i;
+				String dir = directory(entries[i]);
+				directoryIndex.put(dir, dirs.size());
+				dirs.add(dir);
+			}
+		}
+		s[dirs.size()] = n;
+		directories = dirs.toArray(new String[dirs.size()]);
+		starts = new int[directories.length + 1];
+		System.arraycopy(s, 0, starts, 0, starts.length);
+
+		manifestFirst = first >= 0 && "META-INF/MANIFEST.MF".equals(name(first));
+		if (newest >= 0) {
+			lastModifiedName = name(newest);
+			lastModified = dosToJavaTime(newestTime);
+		} else {
+			lastModifiedName = null;
+			lastModified = 0;
+		}
+
+		zip = new ZipFile(file);
+	}
+
+	/**
+	 * Answer the number of file entries.
+	 */
+	int size() {
+		return entries.length;
+	}
+
+	/**
+	 * Answer the index of the entry with the given path, or -1.
+	 */
+	int find(String path) {
+		byte[] key = encode(path);
+		int slash = lastSlash(key, 0, key.length);
+		int low = 0;
+		int high = entries.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(entries[mid], key, slash);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	String getName(int index) {
+		return name(entries[index]);
+	}
+
+	/**
+	 * Answer the resource for an entry, the resource is created the first
+	 * time it is asked for.
+	 */
+	synchronized Resource getResource(int index) {
+		Resource r = resources[index];
+		if (r == null) {
+			ZipEntry entry = zip.getEntry(getName(index));
+			if (entry == null)
+				return null;
+
+			long time = entry.getTime();
+			if (time <= 0)
+				time = file.lastModified();
+			long offset = cen.getInt(entries[index] + 42) & 0xFFFFFFFFL;
+			r = resources[index] = new ZipResource(zip, entry, time, offset);
+		}
+		return r;
+	}
+
+	Resource getResource(String path) {
+		int index = find(path);
+		if (index < 0)
+			return null;
+		return getResource(index);
+	}
+
+	/**
+	 * Answer the directories that have file entries, sorted.
+	 */
+	String[] getDirectories() {
+		return directories;
+	}
+
+	boolean hasDirectory(String path) {
+		return directoryIndex.containsKey(path);
+	}
+
+	/**
+	 * Answer the contents of a directory, or null if it has no entries.
+	 */
+	Map<String, Resource> getDirectory(String path) {
+		Integer n = directoryIndex.get(path);
+		if (n == null)
+			return null;
+
+		Map<String, Resource> map = new TreeMap<String, Resource>();
+		for (int i = starts[n]; i < starts[n + 1]; i++)
+			map.put(getName(i), getResource(i));
+		return map;
+	}
+
+	String name(int offset) {
+		return decode(offset + CEN_SIZE, cen.getShort(offset + 28) & 0xFFFF);
+	}
+
+	String directory(int offset) {
+		int slash = lastSlash(offset + CEN_SIZE, cen.getShort(offset + 28) & 0xFFFF);
+		return decode(offset + CEN_SIZE, slash < 0 ? 0 : slash - (offset + CEN_SIZE));
+	}
+
+	String decode(int start, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = cen.get(start + i);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Cannot happen, UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] encode(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Cannot happen, UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	int lastSlash(int start, int length) {
+		for (int i = start + length - 1; i >= start; i--)
+			if (cen.get(i) == '/')
+				return i;
+		return -1;
+	}
+
+	static int lastSlash(byte[] bytes, int start, int length) {
+		for (int i = start + length - 1; i >= start; i--)
+			if (bytes[i] == '/')
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Compare the entries on directory first and then on name, this keeps the
+	 * entries of a directory together.
+	 */
+	int compare(int a, int b) {
+		int cmp = compareDirectory(a, b);
+		if (cmp != 0)
+			return cmp;
+
+		int la = cen.getShort(a + 28) & 0xFFFF;
+		int lb = cen.getShort(b + 28) & 0xFFFF;
+		int sa = lastSlash(a + CEN_SIZE, la) + 1;
+		int sb = lastSlash(b + CEN_SIZE, lb) + 1;
+		if (sa == 0)
+			sa = a + CEN_SIZE;
+		if (sb == 0)
+			sb = b + CEN_SIZE;
+		return compare(sa, a + CEN_SIZE + la, sb, b + CEN_SIZE + lb);
+	}
+
+	int compareDirectory(int a, int b) {
+		int la = cen.getShort(a + 28) & 0xFFFF;
+		int lb = cen.getShort(b + 28) & 0xFFFF;
+		int sa = lastSlash(a + CEN_SIZE, la);
+		int sb = lastSlash(b + CEN_SIZE, lb);
+		int ea = sa < 0 ? a + CEN_SIZE : sa;
+		int eb = sb < 0 ? b + CEN_SIZE : sb;
+		return compare(a + CEN_SIZE, ea, b + CEN_SIZE, eb);
+	}
+
+	int compare(int a, int aEnd, int b, int bEnd) {
+		while (a < aEnd && b < bEnd) {
+			int cmp = (cen.get(a++) & 0xFF) - (cen.get(b++) & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return (aEnd - a) - (bEnd - b);
+	}
+
+	/**
+	 * Compare an entry with an encoded path with the slash at the given
+	 * index.
+	 */
+	int compare(int offset, byte[] key, int slash) {
+		int length = cen.getShort(offset + 28) & 0xFFFF;
+		int start = offset + CEN_SIZE;
+		int s = lastSlash(start, length);
+
+		int cmp = compare(start, s < 0 ? start : s, key, 0, slash < 0 ? 0 : slash);
+		if (cmp != 0)
+			return cmp;
+
+		return compare(s + 1 == 0 ? start : s + 1, start + length, key, slash + 1, key.length);
+	}
+
+	int compare(int a, int aEnd, byte[] key, int b, int bEnd) {
+		while (a < aEnd && b < bEnd) {
+			int cmp = (cen.get(a++) & 0xFF) - (key[b++] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return (aEnd - a) - (bEnd - b);
+	}
+
+	/**
+	 * Merge sort the entry offsets, avoids boxing the offsets for a
+	 * comparator.
+	 */
+	void sort(int[] a, int[] tmp, int from, int to) {
+		if (to - from < 2)
+			return;
+
+		int mid = (from + to) >>> 1;
+		sort(a, tmp, from, mid);
+		sort(a, tmp, mid, to);
+		if (compare(a[mid - 1], a[mid]) <= 0)
+			return;
+
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to)
+			a[k++] = compare(tmp[i], tmp[j]) <= 0 ? tmp[i++] : tmp[j++];
+		while (i < mid)
+			a[k++] = tmp[i++];
+		while (j < to)
+			a[k++] = tmp[j++];
+	}
+
+	/**
+	 * Convert a DOS date and time as used in the central directory to Java
+	 * time.
+	 */
+	static long dosToJavaTime(long dtime) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set((int) (((dtime >> 25) & 0x7f) + 1980), (int) (((dtime >> 21) & 0x0f) - 1),
+				(int) ((dtime >> 16) & 0x1f), (int) ((dtime >> 11) & 0x1f),
+				(int) ((dtime >> 5) & 0x3f), (int) ((dtime << 1) & 0x3e));
+		return c.getTimeInMillis();
+	}
+
+	void close() throws IOException {
+		zip.close();
+	}
+}
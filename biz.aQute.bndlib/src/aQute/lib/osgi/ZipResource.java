@@ -10,11 +10,22 @@ public class ZipResource implements Resource {
     ZipEntry entry;
     long     lastModified;
     String   extra;
+    long     offset = -1;
 
     ZipResource(ZipFile zip, ZipEntry entry, long lastModified) {
+        this(zip, entry, lastModified, -1);
+    }
+
+    /**
+     * Create a resource for an entry whose local header is at the given offset
+     * in the ZIP file, this allows the {@link ZipWriter} to copy the compressed
+     * data. The offset is -1 when it is not known.
+     */
+    ZipResource(ZipFile zip, ZipEntry entry, long lastModified, long offset) {
         this.zip = zip;
         this.entry = entry;
         this.lastModified = lastModified;
+        this.offset = offset;
         byte[] data = entry.getExtra();
         if (data != null)
             this.extra = new String(data);
@@ -38,6 +49,7 @@ public class ZipResource implements Resource {
 
         try {
             ZipFile zip = new ZipFile(file);
+            Map<String, Long> offsets = ZipIndex.getLocalOffsets(file);
             nextEntry: for (Enumeration<? extends ZipEntry> e = zip.entries(); e
                     .hasMoreElements();) {
                 ZipEntry entry = e.nextElement();
@@ -50,8 +62,10 @@ public class ZipResource implements Resource {
                     long time = entry.getTime();
                     if (time <= 0)
                         time = file.lastModified();
+                    Long offset = offsets == null ? null : offsets.get(entry
+                            .getName());
                     jar.putResource(entry.getName(), new ZipResource(zip,
-                            entry, time), true);
+                            entry, time, offset == null ? -1 : offset), true);
                 }
             }
             return zip;
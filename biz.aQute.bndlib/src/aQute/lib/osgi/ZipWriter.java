@@ -0,0 +1,537 @@
+package aQute.lib.osgi;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Writes a ZIP archive. Unlike the {@link ZipOutputStream} the compressed data
+ * of an entry is known before its header is written. This allows a
+ * {@link ZipResource} that was not modified to be copied from its archive
+ * without inflating and deflating it again. Other resources are compressed
+ * into a buffer first, this can be done concurrently by the workers of the
+ * {@link Processor} while the entries are still written in order. The shared
+ * executor is not bounded, the writer does not hand more compressions to it
+ * than the number of threads it was created with.
+ *
+ * The archive is compatible with the output of the JarOutputStream, the first
+ * entry of a JAR has the JAR magic in its extra field. ZIP64 is only used when
+ * there are more than 65535 entries, entries and archives beyond 4GB are not
+ * supported.
+ */
+class ZipWriter {
+	final static int					LOCAL		= 0x04034b50;
+	final static int					CENTRAL		= 0x02014b50;
+	final static int					END			= 0x06054b50;
+	final static int					END64		= 0x06064b50;
+	final static int					LOCATOR64	= 0x07064b50;
+	final static int					LOCAL_SIZE	= 30;
+	final static int					UTF8		= 0x800;
+	final static int					JAR_MAGIC	= 0xCAFE;
+	final static long					MAX			= 0xFFFFFFFFL;
+	final static Data					EMPTY		= new Data();
+
+	final OutputStream					out;
+	final boolean						jar;
+	final int							level;
+	final int							window;
+	final Semaphore						running;
+	final Queue<Deflater>				deflaters	= new ConcurrentLinkedQueue<Deflater>();
+	final LinkedList<Item>				pending		= new LinkedList<Item>();
+	final List<Entry>					entries		= new ArrayList<Entry>();
+	final Map<File, RandomAccessFile>	sources		= new HashMap<File, RandomAccessFile>();
+	final byte[]						buffer		= new byte[64 * 1024];
+	boolean								first		= true;
+	long								written;
+
+	/**
+	 * The header information of an entry.
+	 */
+	static class Entry {
+		byte[]	name;
+		byte[]	extra;
+		int		flags;
+		int		method;
+		long	time;
+		long	crc;
+		long	compressedSize;
+		long	size;
+		long	offset;
+	}
+
+	/**
+	 * The compressed data of an entry.
+	 */
+	static class Data {
+		int						method	= ZipEntry.STORED;
+		long					crc;
+		long					size;
+		ByteArrayOutputStream	bytes	= new ByteArrayOutputStream(0);
+	}
+
+	/**
+	 * An entry that is waiting to be written. Its data is either copied from
+	 * a ZIP file, compressed already, or being compressed by a worker.
+	 */
+	static class Item {
+		final Entry		entry;
+		final Resource	resource;
+		ZipResource		copy;
+		Data			data;
+		Future<Data>	future;
+
+		Item(Entry entry, Resource resource) {
+			this.entry = entry;
+			this.resource = resource;
+		}
+	}
+
+	/**
+	 * Create a writer that compresses on the calling thread.
+	 *
+	 * @param out
+	 *            the output, it is not closed
+	 * @param jar
+	 *            add the JAR magic to the first entry
+	 */
+	ZipWriter(OutputStream out, boolean jar) {
+		this(out, jar, Deflater.DEFAULT_COMPRESSION, 1);
+	}
+
+	/**
+	 * Create a writer.
+	 *
+	 * @param out
+	 *            the output, it is not closed
+	 * @param jar
+	 *            add the JAR magic to the first entry
+	 * @param level
+	 *            the compression level, 0 stores the entries
+	 * @param threads
+	 *            the number of entries that are compressed concurrently
+	 */
+	ZipWriter(OutputStream out, boolean jar, int level, int threads) {
+		this.out = new BufferedOutputStream(out, buffer.length);
+		this.jar = jar;
+		this.level = level;
+		this.window = threads > 1 ? threads * 4 : 0;
+		this.running = new Semaphore(Math.max(threads, 1));
+	}
+
+	/**
+	 * Add a directory entry.
+	 */
+	void directory(String path) throws Exception {
+		Item item = new Item(entry(path, System.currentTimeMillis(), null), null);
+		item.data = EMPTY;
+		add(item);
+	}
+
+	/**
+	 * Add a resource. A {@link ZipResource} is copied as is when its archive
+	 * can be read directly and its compression method fits the level,
+	 * otherwise the resource is compressed. The resources that only read
+	 * their own data are compressed by the workers, the entries are written in
+	 * the order they were added.
+	 */
+	void write(String path, long time, byte[] extra, final Resource resource) throws Exception {
+		Item item = new Item(entry(path, time, extra), resource);
+
+		if (resource instanceof ZipResource && canCopy((ZipResource) resource))
+			item.copy = (ZipResource) resource;
+		else if (window > 0 && isIndependent(resource)) {
+			FutureTask<Data> task = new FutureTask<Data>(new Callable<Data>() {
+				public Data call() throws Exception {
+					try {
+						return compress(resource);
+					} finally {
+						running.release();
+					}
+				}
+			});
+			// The window holds more items than there are threads, wait for a
+			// compression to finish before another one is started
+			running.acquire();
+			try {
+				Processor.getExecutor().execute(task);
+			} catch (RuntimeException e) {
+				running.release();
+				throw e;
+			}
+			item.future = task;
+		} else
+			item.data = compress(resource);
+
+		add(item);
+	}
+
+	/**
+	 * Queue an item and write the items at the head of the queue that are
+	 * done. Waits for the head when too many items are pending.
+	 */
+	void add(Item item) throws Exception {
+		pending.add(item);
+		while (!pending.isEmpty()) {
+			Item head = pending.getFirst();
+			if (head.future != null && !head.future.isDone() && pending.size() <= window)
+				return;
+			pending.removeFirst();
+			flush(head);
+		}
+	}
+
+	void flush(Item item) throws Exception {
+		if (item.copy != null && copy(item.entry, item.copy))
+			return;
+
+		Data data = item.data;
+		if (data == null) {
+			if (item.future != null)
+				data = get(item.future);
+			else
+				data = compress(item.resource);
+		}
+
+		Entry entry = item.entry;
+		entry.method = data.method;
+		entry.crc = data.crc;
+		entry.size = data.size;
+		entry.compressedSize = data.bytes.size();
+		header(entry);
+		data.bytes.writeTo(out);
+		written += entry.compressedSize;
+	}
+
+	static Data get(Future<Data> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof Exception)
+				throw (Exception) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw e;
+		}
+	}
+
+	/**
+	 * Compress the data of a resource into a buffer.
+	 */
+	Data compress(Resource resource) throws Exception {
+		Data data = new Data();
+		CRC32 crc = new CRC32();
+		if (level == 0) {
+			CountingOutputStream cout = new CountingOutputStream(new CheckedOutputStream(
+					data.bytes, crc));
+			resource.write(cout);
+			data.size = cout.count;
+		} else {
+			Deflater deflater = deflaters.poll();
+			if (deflater == null)
+				deflater = new Deflater(level, true);
+			try {
+				CountingOutputStream cout = new CountingOutputStream(new CheckedOutputStream(
+						new DeflaterOutputStream(data.bytes, deflater, 8192), crc));
+				resource.write(cout);
+				cout.close();
+				data.method = ZipEntry.DEFLATED;
+				data.size = cout.count;
+			} finally {
+				deflater.reset();
+				deflaters.add(deflater);
+			}
+		}
+		data.crc = crc.getValue();
+		return data;
+	}
+
+	/**
+	 * Answer if the resource only reads its own data when it is written.
+	 * Other resources can call back into the builder and are compressed on
+	 * the calling thread.
+	 */
+	static boolean isIndependent(Resource resource) {
+		return resource instanceof FileResource || resource instanceof EmbeddedResource
+				|| resource instanceof ZipResource || resource instanceof URLResource;
+	}
+
+	/**
+	 * Answer if the compressed data of a zip resource can be copied. A stored
+	 * archive must not contain deflated entries.
+	 */
+	boolean canCopy(ZipResource resource) {
+		ZipEntry ze = resource.entry;
+		if (resource.offset < 0 || ze.getCrc() < 0 || ze.getCompressedSize() < 0
+				|| ze.getSize() < 0)
+			return false;
+		if (ze.getMethod() == ZipEntry.STORED)
+			return true;
+		return ze.getMethod() == ZipEntry.DEFLATED && level != 0;
+	}
+
+	/**
+	 * Copy the compressed data of a zip resource from its archive. This is
+	 * only done when the data can be found through the local header.
+	 */
+	boolean copy(Entry entry, ZipResource resource) throws IOException {
+		ZipEntry ze = resource.entry;
+		File file = new File(resource.zip.getName());
+		RandomAccessFile source = sources.get(file);
+		if (source == null) {
+			source = new RandomAccessFile(file, "r");
+			sources.put(file, source);
+		}
+
+		FileChannel channel = source.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining())
+			if (channel.read(header, resource.offset + header.position()) < 0)
+				return false;
+		if (header.getInt(0) != LOCAL || header.getShort(8) != ze.getMethod())
+			return false;
+
+		// The archive could have been replaced since it was read
+		byte[] name = ze.getName().getBytes("UTF-8");
+		int nameLength = header.getShort(26) & 0xFFFF;
+		if (nameLength != name.length)
+			return false;
+		ByteBuffer bb = ByteBuffer.wrap(buffer, 0, nameLength);
+		while (bb.hasRemaining())
+			if (channel.read(bb, resource.offset + LOCAL_SIZE + bb.position()) < 0)
+				return false;
+		for (int i = 0; i < nameLength; i++)
+			if (buffer[i] != name[i])
+				return false;
+
+		long start = resource.offset + LOCAL_SIZE + nameLength + (header.getShort(28) & 0xFFFF);
+		long length = ze.getCompressedSize();
+		if (start + length > channel.size())
+			return false;
+
+		entry.method = ze.getMethod();
+		entry.crc = ze.getCrc();
+		entry.size = ze.getSize();
+		entry.compressedSize = length;
+		header(entry);
+
+		bb = ByteBuffer.wrap(buffer);
+		while (length > 0) {
+			bb.clear();
+			if (length < bb.capacity())
+				bb.limit((int) length);
+			int n = channel.read(bb, start);
+			if (n < 0)
+				throw new EOFException("Unexpected end of " + file + " for " + ze.getName());
+			out.write(buffer, 0, n);
+			start += n;
+			length -= n;
+		}
+		written += entry.compressedSize;
+		return true;
+	}
+
+	Entry entry(String path, long time, byte[] extra) throws IOException {
+		Entry entry = new Entry();
+		entry.name = path.getBytes("UTF-8");
+		if (entry.name.length != path.length())
+			entry.flags |= UTF8;
+		entry.time = javaToDosTime(time);
+
+		if (jar && first && !hasMagic(extra)) {
+			byte[] tmp = new byte[(extra == null ? 0 : extra.length) + 4];
+			tmp[0] = (byte) JAR_MAGIC;
+			tmp[1] = (byte) (JAR_MAGIC >> 8);
+			if (extra != null)
+				System.arraycopy(extra, 0, tmp, 4, extra.length);
+			extra = tmp;
+		}
+		entry.extra = extra;
+		first = false;
+		return entry;
+	}
+
+	static boolean hasMagic(byte[] extra) {
+		if (extra == null)
+			return false;
+
+		for (int i = 0; i + 4 <= extra.length;) {
+			int id = (extra[i] & 0xFF) | (extra[i + 1] & 0xFF) << 8;
+			if (id == JAR_MAGIC)
+				return true;
+			i += 4 + ((extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8);
+		}
+		return false;
+	}
+
+	/**
+	 * Write the local header, the sizes and CRC must be known.
+	 */
+	void header(Entry entry) throws IOException {
+		if (written >= MAX || entry.compressedSize >= MAX || entry.size >= MAX)
+			throw new ZipException("Entries or archives beyond 4GB are not supported: "
+					+ new String(entry.name, "UTF-8"));
+
+		entry.offset = written;
+		entries.add(entry);
+		int4(LOCAL);
+		int2(version(entry));
+		int2(entry.flags);
+		int2(entry.method);
+		int4(entry.time);
+		int4(entry.crc);
+		int4(entry.compressedSize);
+		int4(entry.size);
+		int2(entry.name.length);
+		int2(entry.extra == null ? 0 : entry.extra.length);
+		bytes(entry.name);
+		if (entry.extra != null)
+			bytes(entry.extra);
+	}
+
+	/**
+	 * Write the pending entries and the central directory and flush the
+	 * output.
+	 */
+	void finish() throws Exception {
+		while (!pending.isEmpty())
+			flush(pending.removeFirst());
+
+		long start = written;
+		for (Entry entry : entries) {
+			int4(CENTRAL);
+			int2(20);
+			int2(version(entry));
+			int2(entry.flags);
+			int2(entry.method);
+			int4(entry.time);
+			int4(entry.crc);
+			int4(entry.compressedSize);
+			int4(entry.size);
+			int2(entry.name.length);
+			int2(entry.extra == null ? 0 : entry.extra.length);
+			int2(0); // comment
+			int2(0); // disk
+			int2(0); // internal attributes
+			int4(0); // external attributes
+			int4(entry.offset);
+			bytes(entry.name);
+			if (entry.extra != null)
+				bytes(entry.extra);
+		}
+		long size = written - start;
+		if (start >= MAX || size >= MAX)
+			throw new ZipException("Archives beyond 4GB are not supported");
+
+		int count = entries.size();
+		if (count >= 0xFFFF) {
+			long end64 = written;
+			int4(END64);
+			int8(44);
+			int2(45);
+			int2(45);
+			int4(0);
+			int4(0);
+			int8(count);
+			int8(count);
+			int8(size);
+			int8(start);
+
+			int4(LOCATOR64);
+			int4(0);
+			int8(end64);
+			int4(1);
+			count = 0xFFFF;
+		}
+		int4(END);
+		int2(0);
+		int2(0);
+		int2(count);
+		int2(count);
+		int4(size);
+		int4(start);
+		int2(0);
+		out.flush();
+	}
+
+	/**
+	 * Release the resources of the writer, pending entries are discarded.
+	 */
+	void close() throws IOException {
+		for (Item item : pending)
+			if (item.future != null)
+				item.future.cancel(false);
+		pending.clear();
+
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null)
+			deflater.end();
+
+		for (RandomAccessFile source : sources.values())
+			source.close();
+		sources.clear();
+	}
+
+	static int version(Entry entry) {
+		return entry.method == ZipEntry.DEFLATED ? 20 : 10;
+	}
+
+	void int2(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >> 8) & 0xFF);
+		written += 2;
+	}
+
+	void int4(long v) throws IOException {
+		int2((int) (v & 0xFFFF));
+		int2((int) ((v >> 16) & 0xFFFF));
+	}
+
+	void int8(long v) throws IOException {
+		int4(v & MAX);
+		int4(v >>> 32);
+	}
+
+	void bytes(byte[] b) throws IOException {
+		out.write(b);
+		written += b.length;
+	}
+
+	/**
+	 * Convert Java time to DOS time, times before 1980 are set to 1980.
+	 */
+	static long javaToDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980)
+			return (1 << 21) | (1 << 16);
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21
+				| c.get(Calendar.DAY_OF_MONTH) << 16 | c.get(Calendar.HOUR_OF_DAY) << 11
+				| c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Counts the uncompressed bytes of an entry.
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		long	count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -51,6 +51,45 @@ public class AnalyzerTest extends TestCase {
     	assertEquals(0, b.getWarnings().size());
     }
     
+	/**
+	 * The class queries are answered from an index, check that they give the
+	 * same answer as asking each class.
+	 */
+	public void testClassQueries() throws Exception {
+		Builder b = new Builder();
+		b.addClasspath(new File("jar/osgi.jar"));
+		b.addClasspath(new File("jar/ds.jar"));
+		b.setProperty("Export-Package", "*");
+		b.build();
+
+		String[][] queries = { { "implementing", "org.osgi.service.component.*" },
+				{ "extending", "org.xml.sax.helpers.*" }, { "importing", "org.xml.sax" },
+				{ "implementing", "*" }, { "extending", "!java.lang.Object" },
+				{ "named", "*Parser*", "implementing", "*" },
+				{ "annotation", "aQute.bnd.annotation.component.Component" } };
+
+		for (String[] query : queries) {
+			Set<Clazz> expected = new HashSet<Clazz>(b.getClassspace().values());
+			for (int i = 0; i < query.length; i += 2) {
+				String type = query[i].replace("implementing", "implements")
+						.replace("extending", "extends").replace("importing", "imports");
+				Clazz.QUERY q = Clazz.QUERY.valueOf(type.toUpperCase());
+				String s = query[i + 1];
+				Instruction instr = Instruction.getPattern(q == Clazz.QUERY.ANNOTATION ? "L"
+						+ s.replace('.', '/') + ";" : s.replace(".", "(/|\\$)"));
+				for (Iterator<Clazz> c = expected.iterator(); c.hasNext();)
+					if (!c.next().is(q, instr, b))
+						c.remove();
+			}
+
+			String[] args = new String[query.length + 1];
+			args[0] = "classes";
+			System.arraycopy(query, 0, args, 1, query.length);
+			assertEquals(Arrays.toString(query), expected, new HashSet<Clazz>(b.getClasses(args)));
+		}
+		assertFalse(b.getClasses("", "implementing", "org.osgi.service.component.*").isEmpty());
+	}
+
     public void testFindClass() throws Exception {
         Builder a = new Builder();
         a.setProperty("Export-Package", "org.osgi.service.io");
@@ -63,6 +102,69 @@ public class AnalyzerTest extends TestCase {
         System.out.println(c);
     }
    
+    /**
+     * Parsing the classes in parallel must give the same manifest as the
+     * sequential analysis.
+     */
+    public void testParallel() throws Exception {
+        String sequential = manifestOf("-parallel", "false");
+        String parallel = manifestOf("-parallel", "4");
+        assertEquals(sequential, parallel);
+    }
+
+    public void testClassCache() throws Exception {
+        File dir = new File("tmp-classcache");
+        delete(dir);
+        try {
+            String plain = manifestOf("-classcache", "");
+            String cold = manifestOf("-classcache", dir.getPath());
+            ClassCache cache = ClassCache.getCache(dir);
+            assertEquals(0, cache.getHits());
+            assertTrue(cache.getMisses() > 0);
+
+            String warm = manifestOf("-classcache", dir.getPath());
+            assertEquals(cache.getMisses(), cache.getHits());
+            assertEquals(plain, cold);
+            assertEquals(plain, warm);
+
+            Analyzer a = new Analyzer();
+            a.setProperty("-classcache", dir.getPath());
+            a.setJar(new File("jar/osgi.jar"));
+            a.analyze();
+            String result = a._classes("cmd", "named", "org.osgi.service.http.*",
+                    "abstract");
+            TreeSet<String> r = new TreeSet<String>(Processor.split(result));
+            assertEquals(new TreeSet<String>(Arrays.asList(
+                    "org.osgi.service.http.HttpContext",
+                    "org.osgi.service.http.HttpService")), r);
+            cache.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    void delete(File f) {
+        if (f.isDirectory())
+            for (File sub : f.listFiles())
+                delete(sub);
+        f.delete();
+    }
+
+    String manifestOf(String instruction, String value) throws Exception {
+        Builder b = new Builder();
+        b.addClasspath(new File("jar/osgi.jar"));
+        b.setProperty("Export-Package", "org.osgi.service.*");
+        b.setProperty("Private-Package", "org.osgi.framework,org.osgi.util.*");
+        b.setProperty("-noextraheaders", "true");
+        b.setProperty(instruction, value);
+        b.build();
+        assertEquals(0, b.getErrors().size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.getJar().writeManifest(out);
+        b.close();
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
     public void testMultilevelInheritance() throws Exception {
         Analyzer a = new Analyzer();
         a.setJar(new File("bin"));
@@ -866,6 +866,58 @@ public class BuilderTest extends TestCase {
 				jars[0].getManifest().getMainAttributes().getValue("Implementation-Title"));
 	}
 
+	/**
+	 * Build sub bundles concurrently, the result must be the same as a
+	 * sequential build and in the same order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testParallelSubBuilds() throws Exception {
+		File dir = new File("tmp-sub");
+		dir.mkdirs();
+		try {
+			String[] packages = { "org.objectweb.asm", "org.objectweb.asm.signature",
+					"org.objectweb.asm.*", "org.objectweb.asm;-split-package:=merge-first" };
+			for (int i = 0; i < packages.length; i++) {
+				Writer w = new FileWriter(new File(dir, "sub" + i + ".bnd"));
+				w.write("Private-Package: " + packages[i] + "\n");
+				w.close();
+			}
+
+			Jar[] sequential = subBuilds(dir, "false");
+			Jar[] parallel = subBuilds(dir, "4");
+			assertEquals(packages.length, sequential.length);
+			assertEquals(sequential.length, parallel.length);
+			for (int i = 0; i < sequential.length; i++) {
+				assertEquals(sequential[i].getName(), parallel[i].getName());
+				assertEquals(sequential[i].getResources().keySet(), parallel[i].getResources()
+						.keySet());
+				assertEquals(
+						sequential[i].getManifest().getMainAttributes().getValue("Import-Package"),
+						parallel[i].getManifest().getMainAttributes().getValue("Import-Package"));
+			}
+		} finally {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	Jar[] subBuilds(File dir, String parallel) throws Exception {
+		Builder b = new Builder();
+		b.setBase(dir);
+		b.setClasspath(new File[] { new File("jar/asm.jar") });
+		Properties p = new Properties();
+		p.setProperty("-sub", "*.bnd");
+		p.setProperty("-parallel", parallel);
+		b.setProperties(p);
+		Jar[] jars = b.builds();
+		System.out.println("Errors     :" + b.getErrors());
+		System.out.println("Warnings   :" + b.getWarnings());
+		assertEquals(0, b.getErrors().size());
+		return jars;
+	}
+
 	/**
 	 * Export a package that was loaded with resources
 	 * 
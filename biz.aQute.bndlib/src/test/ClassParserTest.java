@@ -3,6 +3,7 @@ package test;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.*;
 import java.util.*;
 
 import junit.framework.*;
@@ -361,4 +362,41 @@ public class ClassParserTest extends TestCase {
 		assertTrue(set.contains("test"));
 		assertTrue(set.contains("test.annotations"));
 	}
+
+	/**
+	 * The scanner works on a buffer and does not decode the constant pool, it
+	 * must find the same information as the parser.
+	 */
+	public void testScanner() throws Exception {
+		for (String name : new String[] { "jar/osgi.jar", "jar/asm.jar", "jar/spring.jar",
+				"jar/ecj_3.2.2.jar" }) {
+			Jar jar = new Jar(new File(name));
+			for (Map.Entry<String, Resource> entry : jar.getResources().entrySet()) {
+				if (!entry.getKey().endsWith(".class"))
+					continue;
+
+				Clazz parsed = new Clazz(entry.getKey(), entry.getValue());
+				parsed.parseClassFile();
+				Clazz scanned = new Clazz(entry.getKey(), entry.getValue());
+				scanned.scanClassFile();
+
+				assertEquals(entry.getKey(), parsed.getFQN(), scanned.getFQN());
+				assertEquals(entry.getKey(), parsed.getReferred(), scanned.getReferred());
+				assertEquals(entry.getKey(), parsed.getFormat(), scanned.getFormat());
+				assertEquals(entry.getKey(), parsed.isEnum(), scanned.isEnum());
+			}
+			jar.close();
+		}
+	}
+
+	public void testScannerParameterAnnotation() throws Exception {
+		InputStream in = getClass().getResourceAsStream("Test2.jclass");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IO.copy(in, out);
+		Clazz clazz = new Clazz("test", null);
+		clazz.scanClassFile(ByteBuffer.wrap(out.toByteArray()));
+		Set<String> set = clazz.getReferred();
+		assertTrue(set.contains("test"));
+		assertTrue(set.contains("test.annotations"));
+	}
 }
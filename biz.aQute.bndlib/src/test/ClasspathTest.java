@@ -45,6 +45,30 @@ public class ClasspathTest extends TestCase {
 		assertNotNull(jar.getResource("tb1.jar"));
 	}
 
+	/**
+	 * The classpath is indexed on directory, a resource must come from the
+	 * first jar that has it, also for split packages. Adding to the classpath
+	 * must make the new entries visible.
+	 * 
+	 * @throws Exception
+	 */
+	public void testFindResource() throws Exception {
+		Analyzer a = new Analyzer();
+		a.setClasspath(new File[] { new File("jar/osgi.jar"), new File("jar/osgi.core.jar") });
+
+		Resource r = a.findResource("org/osgi/framework/Bundle.class");
+		assertNotNull(r);
+		assertTrue(r.toString().contains("osgi.jar"));
+		assertNull(a.findResource("org/osgi/framework/DoesNotExist.class"));
+		assertNull(a.findResource("does/not/Exist.class"));
+		assertNull(a.findResource("aQute/lib/osgi/Analyzer.class"));
+
+		a.addClasspath(new File("bin"));
+		assertNotNull(a.findResource("aQute/lib/osgi/Analyzer.class"));
+		assertEquals("osgi", a._exporters(new String[] { "exporters", "org.osgi.service.log" }));
+		a.close();
+	}
+
 	/**
 	 * Test if we can use URLs on the classpath
 	 * 
@@ -1,6 +1,10 @@
 package test;
 
+import java.io.*;
+import java.util.*;
+
 import aQute.lib.osgi.*;
+import aQute.lib.osgi.Clazz.*;
 import junit.framework.*;
 
 public class ClazzTest extends TestCase {
@@ -18,4 +22,112 @@ public class ClazzTest extends TestCase {
 		assertEquals("URL", Clazz.unCamel("URL"));
 		assertEquals("A nice party", Clazz.unCamel("aNiceParty"));
 	}
+
+	/**
+	 * A class file is parsed once, the collectors that follow get the
+	 * recorded events.
+	 */
+	public void testReplay() throws Exception {
+		Jar jar = new Jar(new File("jar/osgi.jar"));
+		try {
+			Resource r = jar.getResource("org/osgi/util/tracker/ServiceTracker.class");
+			List<String> parsed = new ArrayList<String>();
+			InputStream in = r.openInputStream();
+			Set<String> xref = new Clazz("ServiceTracker.class", r).parseClassFile(in, new Logger(parsed));
+
+			Clazz clazz = new Clazz("ServiceTracker.class", r);
+			List<String> first = new ArrayList<String>();
+			List<String> second = new ArrayList<String>();
+			assertEquals(xref, clazz.parseClassFileWithCollector(new Logger(first)));
+			assertEquals(xref, clazz.parseClassFileWithCollector(new Logger(second)));
+			assertTrue(parsed.size() > 10);
+			assertEquals(parsed, first);
+			assertEquals(parsed, second);
+
+			List<String> refused = new ArrayList<String>();
+			assertNull(clazz.parseClassFileWithCollector(new Logger(refused) {
+				public boolean classStart(int access, String name) {
+					super.classStart(access, name);
+					return false;
+				}
+			}));
+			assertEquals(Arrays.asList("start org/osgi/util/tracker/ServiceTracker", "end"), refused);
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * A recording is replayed once, the class file is parsed again for the
+	 * collector after that.
+	 */
+	public void testReplayOnce() throws Exception {
+		Jar jar = new Jar(new File("jar/osgi.jar"));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			jar.getResource("org/osgi/util/tracker/ServiceTracker.class").write(out);
+			final int[] opened = new int[1];
+			Clazz clazz = new Clazz("ServiceTracker.class", new EmbeddedResource(out
+					.toByteArray(), 0) {
+				public InputStream openInputStream() throws FileNotFoundException {
+					opened[0]++;
+					return super.openInputStream();
+				}
+			});
+
+			List<String> first = new ArrayList<String>();
+			List<String> second = new ArrayList<String>();
+			List<String> third = new ArrayList<String>();
+			clazz.parseClassFileWithCollector(new Logger(first));
+			clazz.parseClassFileWithCollector(new Logger(second));
+			assertEquals(1, opened[0]);
+			clazz.parseClassFileWithCollector(new Logger(third));
+			assertEquals(2, opened[0]);
+			assertEquals(first, second);
+			assertEquals(first, third);
+		} finally {
+			jar.close();
+		}
+	}
+
+	static class Logger extends ClassDataCollector {
+		final List<String>	log;
+
+		Logger(List<String> log) {
+			this.log = log;
+		}
+
+		public boolean classStart(int access, String name) {
+			log.add("start " + name);
+			return true;
+		}
+
+		public void extendsClass(String name) {
+			log.add("extends " + name);
+		}
+
+		public void implementsInterfaces(String[] names) {
+			log.add("implements " + Arrays.toString(names));
+		}
+
+		public void method(MethodDef defined) {
+			log.add("method " + defined.name + defined.descriptor);
+		}
+
+		public void field(FieldDef defined) {
+			log.add("field " + defined.name);
+		}
+
+		public void reference(MethodDef referenced) {
+			log.add("reference " + referenced.clazz + "." + referenced.name);
+		}
+
+		public void constant(Object object) {
+			log.add("constant " + object);
+		}
+
+		public void classEnd() {
+			log.add("end");
+		}
+	}
 }
@@ -0,0 +1,104 @@
+package test;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import aQute.lib.deployer.*;
+import aQute.lib.io.*;
+import aQute.lib.osgi.*;
+import aQute.libg.version.*;
+
+public class FileRepoTest extends TestCase {
+	File	root;
+
+	public void setUp() throws Exception {
+		root = File.createTempFile("filerepo", ".dir");
+		root.delete();
+		root.mkdirs();
+		touch("a/a-1.0.0.jar");
+		touch("a/a-1.2.0.jar");
+		touch("a/a-2.0.0.jar");
+		touch("a/b-3.0.0.jar");
+		touch("b/b-1.0.0.jar");
+	}
+
+	public void tearDown() throws Exception {
+		IO.delete(root);
+	}
+
+	public void testLookup() throws Exception {
+		FileRepo repo = new FileRepo("test", root, true);
+
+		assertEquals(Arrays.asList("a", "b"), repo.list(null));
+		assertEquals(Arrays.asList("b"), repo.list("b"));
+		assertEquals(Arrays.asList(new Version("1.0.0"), new Version("1.2.0"), new Version("2.0.0")),
+				repo.versions("a"));
+		assertNull(repo.versions("c"));
+		assertNull(repo.get("c", null));
+
+		assertEquals(names("a-1.0.0.jar", "a-1.2.0.jar", "a-2.0.0.jar"), names(repo.get("a", null)));
+		assertEquals(names("a-1.2.0.jar", "a-2.0.0.jar"), names(repo.get("a", "1.1")));
+		assertEquals(names("a-1.0.0.jar", "a-1.2.0.jar"), names(repo.get("a", "[1,2)")));
+		assertEquals(names("a-1.2.0.jar"), names(repo.get("a", "(1,2)")));
+		assertEquals(names("a-2.0.0.jar"), names(repo.get("a", "latest")));
+	}
+
+	/**
+	 * Changes by others are seen after a refresh, a put is seen immediately.
+	 */
+	public void testRefresh() throws Exception {
+		FileRepo repo = new FileRepo("test", root, true);
+		repo.setReporter(new Processor());
+		assertEquals(3, repo.get("a", null).length);
+
+		touch("a/a-3.0.0.jar");
+		touch("c/c-1.0.0.jar");
+		assertEquals(3, repo.get("a", null).length);
+		assertNull(repo.versions("c"));
+
+		assertTrue(repo.refresh());
+		assertEquals(4, repo.get("a", null).length);
+		assertEquals(Arrays.asList(new Version("1.0.0")), repo.versions("c"));
+		assertFalse(repo.refresh());
+
+		IO.delete(new File(root, "c"));
+		new File(root, "a/a-1.0.0.jar").delete();
+		assertTrue(repo.refresh());
+		assertEquals(Arrays.asList("a", "b"), repo.list(null));
+		assertEquals(names("a-1.2.0.jar", "a-2.0.0.jar", "a-3.0.0.jar"), names(repo.get("a", null)));
+
+		Builder builder = new Builder();
+		builder.setProperty("Bundle-SymbolicName", "d");
+		builder.setProperty("Bundle-Version", "1.1");
+		builder.setProperty("-resourceonly", "true");
+		builder.setProperty("-includeresource", "a;literal=a");
+		Jar jar = builder.build();
+		repo.put(jar);
+		assertEquals(Arrays.asList("a", "b", "d"), repo.list(null));
+		assertEquals(names("d-1.1.0.jar"), names(repo.get("d", null)));
+		assertTrue(repo.refresh());
+	}
+
+	void touch(String path) throws IOException {
+		File file = new File(root, path);
+		File dir = file.getParentFile();
+		dir.mkdirs();
+		long lastModified = dir.lastModified();
+		new FileOutputStream(file).close();
+		// Make sure the directory is seen as modified, also within the same
+		// tick of the file system clock
+		dir.setLastModified(Math.max(lastModified, dir.lastModified()) + 1000);
+	}
+
+	static List<String> names(String... names) {
+		return Arrays.asList(names);
+	}
+
+	static List<String> names(File[] files) {
+		List<String> names = new ArrayList<String>();
+		for (File file : files)
+			names.add(file.getName());
+		return names;
+	}
+}
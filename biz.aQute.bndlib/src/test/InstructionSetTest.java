@@ -0,0 +1,76 @@
+package test;
+
+import java.util.*;
+
+import aQute.lib.osgi.*;
+import junit.framework.*;
+
+public class InstructionSetTest extends TestCase {
+
+	static String[]	patterns	= { "com.acme.impl", "!com.acme.impl.*", "com.acme.*",
+			"org.*.util", "org.osgi.framework", "org.osgi.*", "*.internal", "!*" };
+
+	static String[]	packages	= { "com.acme", "com.acme.impl", "com.acme.impl.x",
+			"com.acme.api", "com.acmex", "org.foo.util", "org.osgi.framework",
+			"org.osgi.service.log", "org.osgi", "net.internal", "net", "" };
+
+	/**
+	 * The set must answer the same instruction as matching the instructions
+	 * one by one.
+	 */
+	public void testFirstMatch() {
+		List<Instruction> instructions = instructions(patterns);
+		InstructionSet set = new InstructionSet(instructions);
+
+		for (String p : packages) {
+			Instruction expected = null;
+			for (Instruction i : instructions) {
+				if (i.matches(p)) {
+					expected = i;
+					break;
+				}
+			}
+			assertSame(p, expected, set.matches(p));
+		}
+	}
+
+	public void testOrder() {
+		InstructionSet set = new InstructionSet(instructions(new String[] { "*", "com.acme.*",
+				"com.acme" }));
+		assertEquals(0, set.indexOf("com.acme"));
+
+		set = new InstructionSet(instructions(new String[] { "com.acme.[a-z]*", "com.acme.*",
+				"com.acme.api" }));
+		assertEquals(0, set.indexOf("com.acme.api"));
+		assertEquals(1, set.indexOf("com.acme.API"));
+		assertEquals(-1, set.indexOf("org.acme"));
+	}
+
+	public void testLimit() {
+		List<Instruction> instructions = instructions(new String[] { "com.acme", "org.*", "*" });
+		InstructionSet set = new InstructionSet(instructions);
+		assertEquals(1, set.indexOf("org.osgi"));
+		assertNull(set.matches("org.osgi", 1));
+		assertSame(instructions.get(2), set.matches("net", 3));
+		assertNull(set.matches("net", 2));
+	}
+
+	public void testUnused() {
+		List<Instruction> instructions = instructions(new String[] { "com.acme", "org.*",
+				"net.*" });
+		InstructionSet set = new InstructionSet(instructions);
+		set.indexOf("com.acme");
+		assertEquals(3, set.getUnused().size());
+
+		set.matches("com.acme");
+		set.matches("org.osgi.framework");
+		assertEquals(Arrays.asList(instructions.get(2)), set.getUnused());
+	}
+
+	static List<Instruction> instructions(String[] patterns) {
+		List<Instruction> instructions = new ArrayList<Instruction>();
+		for (String p : patterns)
+			instructions.add(Instruction.getPattern(p));
+		return instructions;
+	}
+}
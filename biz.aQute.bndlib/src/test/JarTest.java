@@ -1,10 +1,13 @@
 package test;
 
 import java.io.*;
+import java.security.*;
+import java.util.*;
 import java.util.jar.*;
 import java.util.zip.*;
 
 import junit.framework.*;
+import aQute.lib.base64.*;
 import aQute.lib.osgi.*;
 
 public class JarTest extends TestCase {
@@ -43,6 +46,232 @@ public class JarTest extends TestCase {
         jin.close();
     }
 
+    public void testLazy() throws Exception {
+        for (String name : new String[] { "jar/osgi.jar", "jar/asm.jar", "jar/spring.jar" }) {
+            File file = new File(name);
+            Jar eager = new Jar(file);
+            Jar lazy = new Jar(file, true);
+
+            assertEquals(eager.getPackages(), lazy.getPackages());
+            assertEquals(eager.getManifest(), lazy.getManifest());
+            for (String path : eager.getResources().keySet()) {
+                assertTrue(path, lazy.exists(path));
+                assertNotNull(path, lazy.getResource(path));
+            }
+            assertNull(lazy.getResource("does/not/Exist.class"));
+            assertFalse(lazy.exists("does/not/Exist.class"));
+
+            for (String path : eager.getDirectoryPaths()) {
+                assertTrue(path, lazy.hasDirectory(path));
+                assertEquals(path, eager.getDirectoryContents(path).keySet(),
+                        lazy.getDirectoryContents(path).keySet());
+            }
+
+            // Asking for the maps reads the whole JAR
+            assertEquals(eager.getResources().keySet(), lazy.getResources().keySet());
+            assertEquals(eager.getDirectories().keySet(), lazy.getDirectories().keySet());
+            eager.close();
+            lazy.close();
+        }
+    }
+
+    public void testCopyCompressed() throws Exception {
+        File file = new File("jar/asm.jar");
+        Jar jar = new Jar(file);
+        jar.putResource("a/b.txt", new EmbeddedResource("Hello".getBytes(), 0));
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        jar.write(bout);
+
+        // The unmodified entries must have the same compressed data
+        ZipFile original = new ZipFile(file);
+        File tmp = File.createTempFile("copy", ".jar");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            out.write(bout.toByteArray());
+            out.close();
+
+            ZipFile copy = new ZipFile(tmp);
+            for (Enumeration<? extends ZipEntry> e = original.entries(); e
+                    .hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory()
+                        || entry.getName().equals("META-INF/MANIFEST.MF"))
+                    continue;
+                ZipEntry c = copy.getEntry(entry.getName());
+                assertNotNull(entry.getName(), c);
+                assertEquals(entry.getCrc(), c.getCrc());
+                assertEquals(entry.getCompressedSize(), c.getCompressedSize());
+                assertEquals(entry.getSize(), c.getSize());
+                assertTrue(Arrays.equals(read(original.getInputStream(entry)),
+                        read(copy.getInputStream(c))));
+            }
+            assertEquals("Hello", new String(read(copy.getInputStream(copy
+                    .getEntry("a/b.txt")))));
+            copy.close();
+        } finally {
+            original.close();
+            tmp.delete();
+        }
+
+        JarInputStream jin = new JarInputStream(new ByteArrayInputStream(bout
+                .toByteArray()));
+        assertNotNull(jin.getManifest());
+        jin.close();
+        jar.close();
+    }
+
+    /**
+     * The classpath jars of a builder are lazy, their entries must also be
+     * copied with their compressed data.
+     */
+    public void testCopyCompressedLazy() throws Exception {
+        // Compress differently than the writer so that only a copy of the
+        // compressed data has the same sizes
+        File file = File.createTempFile("fast", ".jar");
+        ZipFile asm = new ZipFile("jar/asm.jar");
+        ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(file));
+        zout.setLevel(Deflater.BEST_SPEED);
+        for (Enumeration<? extends ZipEntry> e = asm.entries(); e
+                .hasMoreElements();) {
+            ZipEntry entry = e.nextElement();
+            zout.putNextEntry(new ZipEntry(entry.getName()));
+            zout.write(read(asm.getInputStream(entry)));
+            zout.closeEntry();
+        }
+        zout.close();
+        asm.close();
+
+        try {
+            Builder b = new Builder();
+            b.addClasspath(file);
+            b.setProperty("Export-Package", "org.objectweb.asm.*");
+            Jar built = b.build();
+            assertCopied(file, built, "org/objectweb/asm/");
+            b.close();
+
+            Jar lazy = new Jar(file, true);
+            assertCopied(file, lazy, "");
+            lazy.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    void assertCopied(File file, Jar jar, String prefix) throws Exception {
+        ZipFile original = new ZipFile(file);
+        File tmp = File.createTempFile("copy", ".jar");
+        try {
+            jar.write(tmp);
+            ZipFile copy = new ZipFile(tmp);
+            int n = 0;
+            for (Enumeration<? extends ZipEntry> e = original.entries(); e
+                    .hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(prefix)
+                        || entry.getName().equals("META-INF/MANIFEST.MF"))
+                    continue;
+                ZipEntry c = copy.getEntry(entry.getName());
+                assertNotNull(entry.getName(), c);
+                assertEquals(entry.getName(), entry.getCrc(), c.getCrc());
+                assertEquals(entry.getName(), entry.getCompressedSize(), c
+                        .getCompressedSize());
+                n++;
+            }
+            assertTrue(n > 0);
+            copy.close();
+        } finally {
+            original.close();
+            tmp.delete();
+        }
+    }
+
+    public void testParallelCompression() throws Exception {
+        Jar jar = new Jar(new File("jar/asm.jar"));
+        Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            byte[] data = new byte[random.nextInt(20000)];
+            for (int j = 0; j < data.length; j++)
+                data[j] = (byte) ('a' + random.nextInt(4));
+            jar.putResource("p" + (i % 7) + "/r" + i, new EmbeddedResource(data, 0));
+        }
+
+        for (int level : new int[] { 0, 1, 9 }) {
+            jar.setCompression(level);
+            jar.setParallel(4);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            jar.write(bout);
+
+            // Entries must be in the original order with the same content
+            ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bout
+                    .toByteArray()));
+            List<String> names = new ArrayList<String>();
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                if (entry.isDirectory())
+                    continue;
+                names.add(entry.getName());
+                if (level == 0)
+                    assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+                if (!entry.getName().equals("META-INF/MANIFEST.MF")) {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    jar.getResource(entry.getName()).write(content);
+                    assertTrue(entry.getName(), Arrays.equals(content.toByteArray(),
+                            read(zin)));
+                }
+            }
+            List<String> expected = new ArrayList<String>(jar.getResources().keySet());
+            expected.remove("META-INF/MANIFEST.MF");
+            expected.add(0, "META-INF/MANIFEST.MF");
+            assertEquals(expected, names);
+        }
+        jar.close();
+    }
+
+    public void testDigests() throws Exception {
+        final int[] opened = new int[1];
+        Jar jar = new Jar("digests");
+        jar.setManifest(new Manifest());
+        jar.setParallel(4);
+        for (int i = 0; i < 100; i++) {
+            jar.putResource("r" + i, new EmbeddedResource(("resource " + i).getBytes(), 0) {
+                public InputStream openInputStream() throws FileNotFoundException {
+                    synchronized (opened) {
+                        opened[0]++;
+                    }
+                    return super.openInputStream();
+                }
+            });
+        }
+
+        jar.calcChecksums(null);
+        assertEquals(100, opened[0]);
+
+        // Cached, including the algorithms that were already calculated
+        Map<String, byte[][]> digests = jar.getDigests(jar.getResources().keySet(), "MD5",
+                "SHA");
+        assertEquals(100, opened[0]);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest("resource 7".getBytes());
+        assertTrue(Arrays.equals(md5, digests.get("r7")[0]));
+        assertEquals(Base64.encodeBase64(md5), jar.getManifest().getAttributes("r7")
+                .getValue("MD5-Digest"));
+
+        // Only the new algorithm is calculated, in one pass
+        jar.getDigests(jar.getResources().keySet(), "SHA-256", "MD5");
+        assertEquals(200, opened[0]);
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int size;
+        while ((size = in.read(buffer)) > 0)
+            bout.write(buffer, 0, size);
+        if (!(in instanceof ZipInputStream))
+            in.close();
+        return bout.toByteArray();
+    }
+
     public void testSimple() throws ZipException, IOException {
         File file = new File("jar/asm.jar");
         Jar jar = new Jar("asm.jar", file);
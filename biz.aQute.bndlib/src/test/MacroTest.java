@@ -459,4 +459,25 @@ public class MacroTest extends TestCase {
 		Macro m = new Macro(p);
 		assertEquals("${aaaa}", m.process("${literal;$<a>}"));
 	}
+
+	/**
+	 * The result of a pure macro is remembered but must follow the
+	 * properties it depends on, like the implicit version.
+	 */
+	public void testMemoizedVersion() {
+		Processor p = new Processor();
+		Macro m = new Macro(p);
+		p.setProperty("@", "1.2.3");
+		assertEquals("1.3.0", m.process("${version;=+0}"));
+		assertEquals("1.3.0", m.process("${version;=+0}"));
+		p.setProperty("@", "2.0.0");
+		assertEquals("2.1.0", m.process("${version;=+0}"));
+
+		Processor child = new Processor(p);
+		Macro cm = new Macro(child);
+		assertEquals("2.1.0", cm.process("${version;=+0}"));
+		p.setProperty("@", "3.0.0");
+		assertEquals("3.1.0", cm.process("${version;=+0}"));
+		assertEquals(0, p.getErrors().size());
+	}
 }
@@ -3,6 +3,7 @@ package test;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import junit.framework.*;
 import aQute.bnd.build.*;
@@ -221,6 +222,50 @@ public class MavenTest extends TestCase {
 		assertEquals( "com.springsource.org.apache.commons.beanutils-1.6.1.jar", file.getName());
 	}
 
+	/**
+	 * Resolve the dependencies concurrently in a fresh maven cache, the
+	 * result must be in breadth first order and is shared afterwards.
+	 */
+	public void testConcurrentDependencies() throws Exception {
+		File m2 = new File(cwd, "tmp-m2");
+		IO.delete(m2);
+		try {
+			final Maven maven = new Maven(Processor.getExecutor());
+			maven.setM2(m2);
+			final URI repo = IO.getFile(cwd, "maven").toURI();
+
+			List<FutureTask<CachedPom>> tasks = new ArrayList<FutureTask<CachedPom>>();
+			for (int i = 0; i < 4; i++) {
+				FutureTask<CachedPom> task = new FutureTask<CachedPom>(new Callable<CachedPom>() {
+					public CachedPom call() throws Exception {
+						return maven.getPom("org.apache.commons",
+								"com.springsource.org.apache.commons.beanutils", "1.6.1", repo);
+					}
+				});
+				Processor.getExecutor().execute(task);
+				tasks.add(task);
+			}
+			CachedPom pom = tasks.get(0).get();
+			for (FutureTask<CachedPom> task : tasks)
+				assertSame(pom, task.get());
+
+			Set<Pom> dependencies = pom.getDependencies(Pom.Scope.compile, repo);
+			List<String> names = new ArrayList<String>();
+			for (Pom dep : dependencies)
+				names.add(dep.getArtifactId() + "-" + dep.getVersion());
+			assertEquals(Arrays.asList("com.springsource.org.apache.commons.collections-2.1.1",
+					"com.springsource.org.apache.commons.logging-1.0.4"), names);
+
+			Set<Pom> again = pom.getDependencies(Pom.Scope.compile, repo);
+			assertEquals(dependencies, again);
+			Iterator<Pom> a = dependencies.iterator();
+			for (Pom dep : again)
+				assertSame(a.next(), dep);
+		} finally {
+			IO.delete(m2);
+		}
+	}
+
 	public void testMavenx() throws Exception {
 		Maven maven = new Maven(null);
 		CachedPom pom = maven.getPom("javax.xml.bind", "com.springsource.javax.xml.bind", "2.2.0",
@@ -34,6 +34,33 @@ public class ParseHeaderTest extends TestCase {
 
 	
 	
+	/**
+	 * A header is parsed once, every caller gets its own modifiable copy.
+	 * Headers with a problem are parsed again so the problem is reported
+	 * every time.
+	 */
+	public void testCache() {
+		String header = "a;b;version=1, c;resolution:=optional";
+		Map<String,Map<String,String>> cached = OSGiHeader.getHeader(header, null);
+		assertSame(cached, OSGiHeader.getHeader(header, null));
+		try {
+			cached.get("a").put("x", "y");
+			fail("cached header must be unmodifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		Map<String,Map<String,String>> map = OSGiHeader.parseHeader(header);
+		assertEquals(cached, map);
+		assertSame(map.get("a"), map.get("b"));
+		map.get("a").put("x", "y");
+		assertEquals("y", map.get("b").get("x"));
+		assertNull(OSGiHeader.parseHeader(header).get("a").get("x"));
+
+		assertNames("a;a,b", new String[] { "a", "a~", "b"}, null, "Duplicate name a used in header");
+		assertNames("a;a,b", new String[] { "a", "a~", "b"}, null, "Duplicate name a used in header");
+	}
+
 	void assertNames(String header, String[] keys) {
 		assertNames(header,keys, null, null);
 	}
@@ -1,6 +1,7 @@
 package test;
 
 import java.applet.*;
+import java.io.*;
 import java.util.*;
 
 import junit.framework.*;
@@ -52,4 +53,57 @@ public class PluginTest extends TestCase {
             assertEquals( "thinlet.Thinlet", applet.getClass().getName());
         }        
     }
+
+    public static class RPlugin implements Plugin, Refreshable {
+        Map<String,String> properties;
+        int refreshed;
+
+        public void setProperties(Map<String, String> map) {
+            properties = map;
+        }
+
+        public void setReporter(Reporter processor) {
+        }
+
+        public boolean refresh() {
+            refreshed++;
+            return false;
+        }
+
+        public File getRoot() {
+            return null;
+        }
+    }
+
+    /**
+     * A refresh uses the same plugin again as long as its class and
+     * attributes are the same.
+     */
+    public void testRefreshKeepsPlugins() {
+        Processor p = new Processor();
+        p.setProperty(Constants.PLUGIN, "test.PluginTest$RPlugin;a=1");
+        RPlugin plugin = p.getPlugin(RPlugin.class);
+        assertNotNull(plugin);
+        assertEquals(0, plugin.refreshed);
+
+        p.refresh();
+        assertSame(plugin, p.getPlugin(RPlugin.class));
+        assertEquals(1, plugin.refreshed);
+
+        p.setProperty(Constants.PLUGIN, "test.PluginTest$RPlugin;a=2");
+        p.refresh();
+        RPlugin other = p.getPlugin(RPlugin.class);
+        assertNotSame(plugin, other);
+        assertEquals("2", other.properties.get("a"));
+
+        List<RPlugin> plugins = p.getPlugins(RPlugin.class);
+        plugins.clear();
+        assertEquals(1, p.getPlugins(RPlugin.class).size());
+
+        RPlugin basic = new RPlugin();
+        p.addBasicPlugin(basic);
+        assertEquals(2, p.getPlugins(RPlugin.class).size());
+        p.removeBasicPlugin(basic);
+        assertEquals(Arrays.asList(other), p.getPlugins(RPlugin.class));
+    }
 }
@@ -1,6 +1,8 @@
 package test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -10,7 +12,9 @@ import junit.framework.TestCase;
 import aQute.bnd.build.Project;
 import aQute.bnd.build.Workspace;
 import aQute.lib.deployer.FileRepo;
+import aQute.lib.io.IO;
 import aQute.lib.osgi.Builder;
+import aQute.lib.osgi.Constants;
 import aQute.lib.osgi.Jar;
 import aQute.lib.osgi.Processor;
 import aQute.lib.osgi.eclipse.EclipseClasspath;
@@ -51,6 +55,121 @@ public class ProjectTest extends TestCase {
 		}
 	}
 
+	/**
+	 * A build is skipped when the fingerprint of its inputs is the same as
+	 * the fingerprint of the last build.
+	 */
+	public void testFingerprint() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		Project project = ws.getProject("p4-sub");
+
+		// A forced build does not record a fingerprint
+		File[] files = project.buildLocal(false);
+		assertNotNull(files);
+		File fp = new File(project.getTarget(), Constants.BUILDFINGERPRINT);
+		assertFalse(fp.exists());
+
+		project.setChanged();
+		files = project.build(false);
+		assertNotNull(files);
+		String fingerprint = project.getFingerprint(false);
+		assertEquals(fingerprint, project.getFingerprint(false));
+		assertEquals(fingerprint, IO.collect(fp).trim());
+		fp.setLastModified(1000);
+
+		project.setChanged();
+		assertEquals(Arrays.asList(files), Arrays.asList(project.build(false)));
+		assertEquals(1000, fp.lastModified());
+
+		project.setProperty("Fingerprint-Test", "changed");
+		try {
+			assertFalse(fingerprint.equals(project.getFingerprint(false)));
+			project.setChanged();
+			assertNotNull(project.build(false));
+			assertFalse(1000 == fp.lastModified());
+		} finally {
+			project.unsetProperty("Fingerprint-Test");
+		}
+	}
+
+	/**
+	 * A file that is written again with the same length and modification time
+	 * is digested again.
+	 */
+	public void testFingerprintSameLength() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		Project project = ws.getProject("p4-sub");
+		File resource = new File(project.getBase(), "fingerprint.txt");
+		File fp = new File(project.getTarget(), Constants.BUILDFINGERPRINT);
+		try {
+			IO.copy(new ByteArrayInputStream("aaaa".getBytes()), resource);
+			long lastModified = resource.lastModified();
+			project.setChanged();
+			assertNotNull(project.build(false));
+			String fingerprint = IO.collect(fp).trim();
+
+			IO.copy(new ByteArrayInputStream("bbbb".getBytes()), resource);
+			resource.setLastModified(lastModified);
+			assertFalse(fingerprint.equals(project.getFingerprint(false)));
+			project.setChanged();
+			assertNotNull(project.build(false));
+			assertEquals(project.getFingerprint(false), IO.collect(fp).trim());
+		} finally {
+			resource.delete();
+		}
+	}
+
+	/**
+	 * Included resources outside the project are part of the fingerprint, a
+	 * project that includes a resource from a URL is always built.
+	 */
+	public void testFingerprintOutside() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		Project project = ws.getProject("p4-sub");
+		File resource = File.createTempFile("fingerprint", ".txt");
+		try {
+			IO.copy(new ByteArrayInputStream("aaaa".getBytes()), resource);
+			project.setProperty(Constants.INCLUDERESOURCE, resource.getAbsolutePath());
+			String fingerprint = project.getFingerprint(false);
+			assertNotNull(fingerprint);
+
+			IO.copy(new ByteArrayInputStream("bbbbbb".getBytes()), resource);
+			assertFalse(fingerprint.equals(project.getFingerprint(false)));
+
+			project.setProperty(Constants.INCLUDERESOURCE, "@http://localhost/x.jar");
+			assertNull(project.getFingerprint(false));
+		} finally {
+			project.unsetProperty(Constants.INCLUDERESOURCE);
+			resource.delete();
+		}
+	}
+
+	/**
+	 * The fingerprint does not depend on the place of the workspace.
+	 */
+	public void testFingerprintRelocated() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		File tmp = File.createTempFile("workspace", "");
+		tmp.delete();
+		try {
+			copy(new File("test/ws"), tmp);
+			Workspace relocated = Workspace.getWorkspace(tmp);
+			assertEquals(ws.getProject("p4-sub").getFingerprint(false), relocated.getProject(
+					"p4-sub").getFingerprint(false));
+		} finally {
+			IO.delete(tmp);
+		}
+	}
+
+	static void copy(File from, File to) throws Exception {
+		if (from.isDirectory()) {
+			to.mkdirs();
+			for (String sub : from.list())
+				copy(new File(from, sub), new File(to, sub));
+		} else
+			IO.copy(from, to);
+	}
+
 	/**
 	 * Tests the handling of the -sub facility
 	 * 
@@ -105,11 +224,21 @@ public class ProjectTest extends TestCase {
 
 		Thread.sleep(2000);
 
+		// A newer modification time alone does not change the fingerprint
 		project.updateModified(System.currentTimeMillis(), "Testing");
 		files = project.build();
 		assertEquals(1, files.length);
-		assertTrue("Must have newer files now",
-				files[0].lastModified() > lastTime);
+		assertTrue(files[0].lastModified() == lastTime);
+
+		project.setProperty("Out-Of-Date", "true");
+		try {
+			project.updateModified(System.currentTimeMillis(), "Testing");
+			files = project.build();
+			assertEquals(1, files.length);
+			assertTrue("Must have newer files now", files[0].lastModified() > lastTime);
+		} finally {
+			project.unsetProperty("Out-Of-Date");
+		}
 	}
 
 	public void testRepoMacro() throws Exception {
@@ -1,9 +1,12 @@
 package test;
 
 import java.io.*;
+import java.util.*;
+import java.util.jar.*;
 
 import junit.framework.*;
 import aQute.bnd.resolver.*;
+import aQute.lib.osgi.Jar;
 
 public class ResolverTest extends TestCase {
 
@@ -19,4 +22,158 @@ public class ResolverTest extends TestCase {
 		System.out.println("Unique solutions  : " + res.unique);
 		System.out.println("Multiple solutions: " + res.multiple);
 	}
+
+	public void testStatistics() throws Exception {
+		Resolver resolver = new Resolver();
+		resolver.add(new File("jar/osgi.core.jar"));
+		resolver.add(new File("jar/ds.jar"));
+		Resolution res = resolver.resolve();
+		System.out.println(res);
+
+		assertEquals(2, res.resources);
+		assertTrue(res.capabilities > 0);
+		assertEquals(res.requirements, res.lookups);
+		assertTrue(res.unresolved.size() + res.unique.size() + res.multiple.size() <= res.requirements);
+		assertTrue(res.indexTime >= 0);
+		assertTrue(res.resolveTime >= 0);
+	}
+
+	public void testVersionRanges() throws Exception {
+		File tmp = new File("tmp-resolver");
+		tmp.mkdirs();
+		try {
+			Resolver resolver = new Resolver();
+			for (String v : new String[] { "1.0.0", "1.5.0", "2.0.0", "3.0.0" })
+				resolver.add(bundle(tmp, "exporter" + v, "Bundle-Version", v, "Export-Package",
+						"p;version=" + v));
+			resolver.add(bundle(tmp, "a", "Import-Package", "p;version=\"[1.5,2)\""));
+			resolver.add(bundle(tmp, "b", "Import-Package", "p;version=\"(1.0,3.0]\""));
+			resolver.add(bundle(tmp, "c", "Import-Package", "p;version=2.5"));
+			resolver.add(bundle(tmp, "d", "Import-Package", "p;version=\"[4,5)\""));
+			Resolution res = resolver.resolve();
+
+			Map<String, Set<String>> found = new HashMap<String, Set<String>>();
+			for (Map.Entry<?, ?> e : res.unique.entrySet())
+				found.put(e.getKey().toString(), Collections.singleton(e.getValue().toString()));
+			for (Map.Entry<?, ?> e : res.multiple.entrySet()) {
+				Set<String> set = new TreeSet<String>();
+				for (Object r : (Collection<?>) e.getValue())
+					set.add(r.toString());
+				found.put(e.getKey().toString(), set);
+			}
+			assertEquals(Collections.singleton("exporter1.5.0-1.5.0"), found
+					.get("R.PACKAGE:p-[1.5.0,2.0.0)"));
+			assertEquals(new TreeSet<String>(Arrays.asList("exporter1.5.0-1.5.0",
+					"exporter2.0.0-2.0.0", "exporter3.0.0-3.0.0")), found
+					.get("R.PACKAGE:p-(1.0.0,3.0.0]"));
+			assertEquals(Collections.singleton("exporter3.0.0-3.0.0"), found
+					.get("R.PACKAGE:p-2.5.0"));
+			assertEquals(1, res.unresolved.size());
+		} finally {
+			delete(tmp);
+		}
+	}
+
+	public void testUsesConstraints() throws Exception {
+		for (String parallel : new String[] { "false", "4" }) {
+			File tmp = new File("tmp-resolver");
+			tmp.mkdirs();
+			try {
+				Resolver resolver = new Resolver();
+				resolver.setProperty("-parallel", parallel);
+				resolver.add(bundle(tmp, "p1", "Export-Package", "p;version=1"));
+				resolver.add(bundle(tmp, "p2", "Bundle-Version", "2", "Export-Package",
+						"p;version=2"));
+				resolver.add(bundle(tmp, "q", "Import-Package", "p;version=\"[1,2)\"",
+						"Export-Package", "q;uses:=p"));
+				// Prefers p2 for p but q uses p from p1
+				resolver.add(bundle(tmp, "a", "Import-Package", "q,p;version=\"[1,3)\""));
+				Resolution res = resolver.resolve();
+				System.out.println(res);
+
+				assertEquals(0, resolver.getErrors().size());
+				assertNotNull(res.wiring);
+				assertEquals("{R.PACKAGE:p-[1.0.0,3.0.0)=p1-1.0.0, R.PACKAGE:q-0.0.0=q-1.0.0}",
+						wires(res, "a"));
+				assertTrue(res.steps > 0);
+			} finally {
+				delete(tmp);
+			}
+		}
+	}
+
+	public void testUsesConflict() throws Exception {
+		File tmp = new File("tmp-resolver");
+		tmp.mkdirs();
+		try {
+			Resolver resolver = new Resolver();
+			resolver.add(bundle(tmp, "p1", "Export-Package", "p;version=1"));
+			resolver.add(bundle(tmp, "p2", "Bundle-Version", "2", "Export-Package",
+					"p;version=2"));
+			resolver.add(bundle(tmp, "q", "Import-Package", "p;version=\"[1,2)\"",
+					"Export-Package", "q;uses:=p"));
+			resolver.add(bundle(tmp, "a", "Import-Package", "q,p;version=\"[2,3)\""));
+			Resolution res = resolver.resolve();
+
+			assertNull(res.wiring);
+			assertEquals(1, resolver.getErrors().size());
+			assertTrue(resolver.getErrors().get(0).startsWith("No consistent wiring"));
+		} finally {
+			delete(tmp);
+		}
+	}
+
+	public void testFragments() throws Exception {
+		File tmp = new File("tmp-resolver");
+		tmp.mkdirs();
+		try {
+			Resolver resolver = new Resolver();
+			resolver.add(bundle(tmp, "host"));
+			resolver.add(bundle(tmp, "fragment", "Fragment-Host", "host", "Export-Package", "f",
+					"Import-Package", "p"));
+			resolver.add(bundle(tmp, "p", "Export-Package", "p"));
+			resolver.add(bundle(tmp, "a", "Import-Package", "f"));
+			Resolution res = resolver.resolve();
+
+			assertEquals(0, resolver.getErrors().size());
+			assertNotNull(res.wiring);
+			assertEquals("{R.PACKAGE:f-0.0.0=host-1.0.0}", wires(res, "a"));
+			assertEquals("{R.PACKAGE:p-0.0.0=p-1.0.0}", wires(res, "host"));
+		} finally {
+			delete(tmp);
+		}
+	}
+
+	static String wires(Resolution res, String bsn) {
+		for (Map.Entry<?, ?> e : res.wiring.entrySet()) {
+			if (e.getKey().toString().startsWith(bsn + "-")) {
+				Map<String, String> map = new TreeMap<String, String>();
+				for (Map.Entry<?, ?> w : ((Map<?, ?>) e.getValue()).entrySet())
+					map.put(w.getKey().toString(), w.getValue().toString());
+				return map.toString();
+			}
+		}
+		return null;
+	}
+
+	static void delete(File dir) {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	static File bundle(File dir, String bsn, String... headers) throws Exception {
+		Manifest m = new Manifest();
+		m.getMainAttributes().putValue("Manifest-Version", "1.0");
+		m.getMainAttributes().putValue("Bundle-ManifestVersion", "2");
+		m.getMainAttributes().putValue("Bundle-SymbolicName", bsn);
+		m.getMainAttributes().putValue("Bundle-Version", "1.0.0");
+		for (int i = 0; i < headers.length; i += 2)
+			m.getMainAttributes().putValue(headers[i], headers[i + 1]);
+		Jar jar = new Jar(bsn);
+		jar.setManifest(m);
+		File file = new File(dir, bsn + ".jar");
+		jar.write(file);
+		return file;
+	}
 }
@@ -31,6 +31,17 @@ public class TestQuotedTokenizer extends TestCase {
 		assertEquals("1 ,\t.jar", s[0]);
 	}
 	
+	public void testPartlyQuoted() {
+		QuotedTokenizer qt = new QuotedTokenizer("x = a'b, c'd ,y\u2003", ",=");
+		assertEquals("x", qt.nextToken());
+		assertEquals('=', qt.getSeparator());
+		assertEquals("ab, cd", qt.nextToken());
+		assertEquals(',', qt.getSeparator());
+		assertEquals("y", qt.nextToken());
+		assertEquals(0, qt.getSeparator());
+		assertNull(qt.nextToken());
+	}
+	
 	public void testWhiteSpace() {
 		String s[] = new QuotedTokenizer("               1.jar,               2.jar         ", ",").getTokens();
 		assertEquals("Length", 2, s.length);
@@ -1,6 +1,7 @@
 package test;
 
 import java.io.*;
+import java.util.*;
 
 import junit.framework.*;
 import aQute.bnd.build.*;
@@ -23,5 +24,69 @@ public class WorkspaceTest extends TestCase {
         assertEquals( "true", ws.getProperty("ext"));
     }
 
-    
+    public void testBuildScheduler() throws Exception {
+        File dir = new File("tmp-ws").getAbsoluteFile();
+        delete(dir);
+        try {
+            write(new File(dir, "cnf/build.bnd"), "-parallel: 4\n");
+            String resource = "-resourceonly: true\nInclude-Resource: bnd.bnd\n";
+            write(new File(dir, "base/bnd.bnd"), resource);
+            write(new File(dir, "one/bnd.bnd"), resource + "-dependson: base\n");
+            write(new File(dir, "two/bnd.bnd"), resource + "-dependson: base\n");
+            write(new File(dir, "top/bnd.bnd"), resource + "-dependson: one,two\n");
+
+            Workspace ws = new Workspace(dir);
+            BuildScheduler scheduler = new BuildScheduler(ws, ws.getAllProjects());
+            assertTrue(ws.getErrors().toString(), scheduler.build(false));
+            assertEquals(4, scheduler.getBuilt().size());
+
+            List<Project> order = new ArrayList<Project>(scheduler.getTimes().keySet());
+            assertEquals(4, order.size());
+            assertEquals("base", order.get(0).getName());
+            assertEquals("top", order.get(3).getName());
+            assertTrue(new File(dir, "top/generated/top.jar").isFile());
+
+            // Nothing changed, so nothing is built
+            scheduler = new BuildScheduler(ws, ws.getAllProjects());
+            assertTrue(scheduler.build(false));
+            assertEquals(0, scheduler.getBuilt().size());
+            assertEquals(4, scheduler.getTimes().size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testBuildSchedulerCycle() throws Exception {
+        File dir = new File("tmp-ws").getAbsoluteFile();
+        delete(dir);
+        try {
+            write(new File(dir, "cnf/build.bnd"), "");
+            String resource = "-resourceonly: true\nInclude-Resource: bnd.bnd\n";
+            write(new File(dir, "a/bnd.bnd"), resource + "-dependson: b\n");
+            write(new File(dir, "b/bnd.bnd"), resource + "-dependson: a\n");
+
+            Workspace ws = new Workspace(dir);
+            BuildScheduler scheduler = new BuildScheduler(ws, ws.getAllProjects());
+            assertFalse(scheduler.build(false));
+            assertEquals(0, scheduler.getTimes().size());
+            assertTrue(ws.getErrors().size() > 0);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer w = new FileWriter(file);
+        w.write(content);
+        w.close();
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File f : files)
+                delete(f);
+        file.delete();
+    }
 }
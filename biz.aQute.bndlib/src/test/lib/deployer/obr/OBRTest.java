@@ -1,8 +1,15 @@
 package test.lib.deployer.obr;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -187,4 +194,68 @@ public class OBRTest extends TestCase {
 		
 		assertEquals("http://www.example.com/bundles/dummybundle.jar,file:/Users/neil/bundles/dummy.jar", obr2.getName());
 	}
+	
+	public void testIndexCache() throws Exception {
+		File cacheDir = obr.getCacheDir();
+		cacheDir.mkdirs();
+		File index = new File(cacheDir, "index.xml");
+		copy(OBRTest.class.getResource("fullobr.xml"), index);
+		index.setLastModified(index.lastModified() - 10000);
+		
+		URL[] locations = new URL[] { index.toURI().toURL(), OBRTest.class.getResource("testobr.xml") };
+		obr.setLocations(locations);
+		List<Version> versions = obr.versions("name.njbartlett.osgi.emf.minimal");
+		assertEquals(2, versions.size());
+		assertEquals(Arrays.asList("org.apache.felix.shell"), obr.list("org\\.apache\\.felix\\.shell"));
+		
+		int caches = 0;
+		for (File file : cacheDir.listFiles())
+			if (file.getName().endsWith(".cache"))
+				caches++;
+		assertEquals(2, caches);
+		
+		// Unchanged index, the contents are not read again
+		long lastModified = index.lastModified();
+		long length = index.length();
+		RandomAccessFile raf = new RandomAccessFile(index, "rw");
+		raf.setLength(0);
+		raf.setLength(length);
+		raf.close();
+		index.setLastModified(lastModified);
+		
+		OBR obr2 = new OBR();
+		obr2.setLocations(locations);
+		obr2.setCacheDir(cacheDir);
+		assertEquals(versions, obr2.versions("name.njbartlett.osgi.emf.minimal"));
+		assertEquals(obr.list(null), obr2.list(null));
+		
+		// Changed index, parsed again
+		FileOutputStream out = new FileOutputStream(index);
+		out.write("<repository/>".getBytes());
+		out.close();
+		
+		OBR obr3 = new OBR();
+		obr3.setLocations(locations);
+		obr3.setCacheDir(cacheDir);
+		assertEquals(Arrays.asList("org.apache.felix.shell", "org.apache.felix.shell.tui"), sort(obr3.list(null)));
+	}
+	
+	static List<String> sort(List<String> list) {
+		Collections.sort(list);
+		return list;
+	}
+	
+	static void copy(URL url, File file) throws IOException {
+		InputStream in = url.openStream();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
 }
@@ -36,6 +36,7 @@ public class Launcher implements ServiceListener {
 	private TimerTask						watchdog			= null;
 	private final Map<Bundle, Throwable>	errors				= new HashMap<Bundle, Throwable>();
 	private final Map<File, Bundle>			installedBundles	= new LinkedHashMap<File, Bundle>();
+	final static int						INSTALLERS			= 4;
 
 	public static void main(String[] args) {
 		try {
@@ -65,29 +66,76 @@ public class Launcher implements ServiceListener {
 
 		out = System.err;
 		trace("inited runbundles=%s activators=%s timeout=%s", parms.runbundles, parms.activators, parms.timeout);
-		watchdog = new TimerTask() {
-			long	begin	= propertiesFile.lastModified();
+		watchdog = new Watchdog();
+		timer.scheduleAtFixedRate(watchdog, 5000, 1000);
+	}
 
-			public void run() {
-				if (begin < propertiesFile.lastModified()) {
+	/**
+	 * Watches the launch properties and the run bundles. The properties file
+	 * is checked every period, the run bundles only every BUNDLE_PERIODS
+	 * periods, after a change of the properties or while a change settles.
+	 * Checking the bundles costs a stat per bundle, a rebuilt bundle is then
+	 * picked up a few seconds later in return. A change is only acted upon
+	 * when the files did not change for one more period, so that a build that
+	 * writes many bundles results in a single update.
+	 */
+	class Watchdog extends TimerTask {
+		final static int	BUNDLE_PERIODS	= 5;
+		Map<File, Long>		stamps			= snapshot();
+		Map<File, Long>		pending;
+		int					periods;
+
+		public void run() {
+			Long modified = new Long(propertiesFile.lastModified());
+			if (pending == null && modified.equals(stamps.get(propertiesFile))
+					&& ++periods < BUNDLE_PERIODS)
+				return;
+
+			periods = 0;
+			Map<File, Long> current = snapshot();
+			if (current.equals(stamps)) {
+				pending = null;
+				return;
+			}
+			if (!current.equals(pending)) {
+				// Still changing, wait for the next period
+				pending = current;
+				return;
+			}
+
+			boolean reload = !current.get(propertiesFile).equals(stamps.get(propertiesFile));
+			pending = null;
+			try {
+				if (reload) {
+					FileInputStream in = new FileInputStream(propertiesFile);
+					Properties properties = new Properties();
 					try {
-						FileInputStream in = new FileInputStream(propertiesFile);
-						Properties properties = new Properties();
-						try {
-							properties.load(in);
-						} finally {
-							in.close();
-						}
-						parms = new LauncherConstants(properties);						
-						update();
-					} catch (Exception e) {
-						error("Error in updating the framework from the properties: %s", e);
+						properties.load(in);
+					} finally {
+						in.close();
 					}
-					begin = propertiesFile.lastModified();
+					parms = new LauncherConstants(properties);
 				}
+				stamps = snapshot();
+				update();
+			} catch (Exception e) {
+				error("Error in updating the framework from the properties: %s", e);
 			}
-		};
-		timer.scheduleAtFixedRate(watchdog, 5000, 1000);
+		}
+
+		/**
+		 * Answer the last modified times of the properties and the run
+		 * bundles.
+		 */
+		Map<File, Long> snapshot() {
+			Map<File, Long> stamps = new HashMap<File, Long>();
+			stamps.put(propertiesFile, new Long(propertiesFile.lastModified()));
+			for (Object o : parms.runbundles) {
+				File file = new File((String) o).getAbsoluteFile();
+				stamps.put(file, new Long(file.lastModified()));
+			}
+			return stamps;
+		}
 	}
 
 	private void run(String args[]) throws Throwable {
@@ -210,6 +258,13 @@ public class Launcher implements ServiceListener {
 	 * @throws IOException
 	 */
 	private void update() throws Exception {
+		// The watchdog can fire while we are still activating
+		synchronized (installedBundles) {
+			update0();
+		}
+	}
+
+	private void update0() throws Exception {
 		trace("Updating framework with %s", parms.runbundles);
 		
 		// Turn the bundle location paths into files
@@ -245,16 +300,15 @@ public class Launcher implements ServiceListener {
 				error("Failed to uninstall bundle %s, exception %s", f, e);
 			}
 
-		for (File f : tobeinstalled)
-			try {
-				trace("installing %s", f);
-				Bundle b = install(f);
-				installedBundles.put(f, b);
-				tobestarted.add(b);
-			} catch (Exception e) {
-				error("Failed to uninstall bundle %s, exception %s", f, e);
+		Bundle[] installed = install(tobeinstalled);
+		for (int i = 0; i < installed.length; i++) {
+			if (installed[i] != null) {
+				installedBundles.put(tobeinstalled.get(i), installed[i]);
+				tobestarted.add(installed[i]);
 			}
+		}
 
+		boolean refresh = !tobedeleted.isEmpty();
 		for (File f : tobeupdated)
 			try {
 				Bundle b = installedBundles.get(f);
@@ -265,13 +319,16 @@ public class Launcher implements ServiceListener {
 						b.stop();
 					}
 					b.update();
+					refresh = true;
 				} else
 					trace("bundle is still current according to timestamp %s", f);
 			} catch (Exception e) {
 				error("Failed to update bundle %s, exception %s", f, e);
 			}
 
-		if (padmin != null)
+		// Only removed and updated bundles leave stale wires, all of them are
+		// refreshed at once
+		if (padmin != null && refresh)
 			padmin.refreshPackages(null);
 
 		trace("bundles administered %s", installedBundles.keySet());
@@ -307,6 +364,47 @@ public class Launcher implements ServiceListener {
 
 	}
 
+	/**
+	 * Install the bundles, concurrently when the framework is not our own mini
+	 * framework. The bundles are returned in the order of the files, null for
+	 * a file that failed to install.
+	 */
+	private Bundle[] install(final List<File> files) throws InterruptedException {
+		final Bundle[] bundles = new Bundle[files.size()];
+		Runnable installer = new Runnable() {
+			int	next;
+
+			synchronized int next() {
+				return next++;
+			}
+
+			public void run() {
+				int i;
+				while ((i = next()) < files.size()) {
+					File f = files.get(i);
+					try {
+						trace("installing %s", f);
+						bundles[i] = install(f);
+					} catch (Exception e) {
+						error("Failed to install bundle %s, exception %s", f, e);
+					}
+				}
+			}
+		};
+
+		int n = parms.services ? Math.min(INSTALLERS, files.size()) : 1;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 1; i < n; i++) {
+			Thread thread = new Thread(installer, "Installer-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		installer.run();
+		for (Thread thread : threads)
+			thread.join();
+		return bundles;
+	}
+
 	Bundle install(File f) throws Exception {
 		BundleContext context = systemBundle.getBundleContext();
 		try {